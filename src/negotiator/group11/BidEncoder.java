@@ -0,0 +1,185 @@
+package negotiator.group11;
+
+import java.util.HashMap;
+import java.util.List;
+
+import negotiator.Bid;
+import negotiator.Domain;
+import negotiator.issue.Issue;
+import negotiator.issue.IssueDiscrete;
+import negotiator.issue.Value;
+import negotiator.issue.ValueDiscrete;
+
+/**
+ * Maps the bids of a discrete domain onto compact numeric codes.
+ *
+ * A bid is encoded as a mixed-radix number over the value indices of its
+ * issues, so every bid fits in a single long and can be decoded again.
+ *
+ * NOTE: Only supports (explicitly) Discrete Issue values
+ */
+public class BidEncoder {
+
+	private final Domain domain;
+	private final IssueDiscrete[] issues;
+	private final int[] issueNumbers;
+	private final int[] cardinalities;
+	private final long[] radix;
+	private final HashMap<ValueDiscrete, Integer>[] valueIndices;
+	private final long size;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BidEncoder(Domain d) {
+		this.domain = d;
+
+		List<Issue> domainIssues = d.getIssues();
+		issues = new IssueDiscrete[domainIssues.size()];
+		issueNumbers = new int[issues.length];
+		cardinalities = new int[issues.length];
+		radix = new long[issues.length];
+		valueIndices = new HashMap[issues.length];
+
+		long product = 1;
+		for (int i = 0; i < issues.length; i++) {
+			Issue issue = domainIssues.get(i);
+			if (!(issue instanceof IssueDiscrete))
+				throw new IllegalArgumentException("Domains with issues of type "
+						+ issue.getType() + " can not be encoded!");
+
+			IssueDiscrete id = (IssueDiscrete) issue;
+			issues[i] = id;
+			issueNumbers[i] = id.getNumber();
+			cardinalities[i] = id.getNumberOfValues();
+
+			valueIndices[i] = new HashMap<ValueDiscrete, Integer>();
+			for (int j = 0; j < cardinalities[i]; j++)
+				valueIndices[i].put(id.getValue(j), j);
+
+			radix[i] = product;
+			if (product > Long.MAX_VALUE / Math.max(1, cardinalities[i]))
+				throw new IllegalArgumentException(
+						"Outcome space is too large to encode in a long");
+			product *= cardinalities[i];
+		}
+		size = product;
+	}
+
+	/**
+	 * Determine whether the bids of a domain can be encoded
+	 *
+	 * @param d
+	 * @return true iff all issues are discrete and the outcome space fits in a
+	 *         long
+	 */
+	public static boolean supports(Domain d) {
+		double product = 1;
+		for (Issue i : d.getIssues()) {
+			if (!(i instanceof IssueDiscrete))
+				return false;
+			product *= ((IssueDiscrete) i).getNumberOfValues();
+		}
+		return product < Long.MAX_VALUE;
+	}
+
+	/**
+	 * Encode a bid
+	 *
+	 * @param b
+	 * @return the code of the bid, or -1 if the bid does not belong to this
+	 *         domain
+	 */
+	public long encode(Bid b) {
+		if (b == null)
+			return -1;
+
+		HashMap<Integer, Value> values = b.getValues();
+		long code = 0;
+		for (int i = 0; i < issues.length; i++) {
+			Integer index = valueIndices[i].get(values.get(issueNumbers[i]));
+			if (index == null)
+				return -1;
+			code += radix[i] * index;
+		}
+		return code;
+	}
+
+	/**
+	 * Get the value index per issue of a bid
+	 *
+	 * @param b
+	 * @return the value indices, in the order of {@link #getIssues()}, or null
+	 *         if the bid does not belong to this domain
+	 */
+	public int[] getValueIndices(Bid b) {
+		if (b == null)
+			return null;
+
+		HashMap<Integer, Value> values = b.getValues();
+		int[] result = new int[issues.length];
+		for (int i = 0; i < issues.length; i++) {
+			Integer index = valueIndices[i].get(values.get(issueNumbers[i]));
+			if (index == null)
+				return null;
+			result[i] = index;
+		}
+		return result;
+	}
+
+	/**
+	 * Get the value index of a single issue from an encoded bid
+	 *
+	 * @param code
+	 * @param issue
+	 *            position of the issue in {@link #getIssues()}
+	 * @return the value index
+	 */
+	public int getValueIndex(long code, int issue) {
+		return (int) ((code / radix[issue]) % cardinalities[issue]);
+	}
+
+	/**
+	 * Decode a bid
+	 *
+	 * @param code
+	 * @return the bid that belongs to the code
+	 */
+	public Bid decode(long code) {
+		if (code < 0 || code >= size)
+			throw new IllegalArgumentException("Invalid bid code " + code);
+
+		HashMap<Integer, Value> values = new HashMap<Integer, Value>();
+		for (int i = 0; i < issues.length; i++)
+			values.put(issueNumbers[i], issues[i].getValue(getValueIndex(code, i)));
+
+		try {
+			return new Bid(domain, values);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Invalid bid code " + code, e);
+		}
+	}
+
+	/**
+	 * @return the issues of the domain, in encoding order
+	 */
+	public IssueDiscrete[] getIssues() {
+		return issues;
+	}
+
+	/**
+	 * @return the amount of values per issue, in encoding order
+	 */
+	public int[] getCardinalities() {
+		return cardinalities;
+	}
+
+	/**
+	 * @return the amount of possible bids
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	public Domain getDomain() {
+		return domain;
+	}
+}
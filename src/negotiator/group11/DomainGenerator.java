@@ -0,0 +1,251 @@
+package negotiator.group11;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic discrete domains and linear additive utility profiles,
+ * in the same XML format as the ANAC2015 templates in etc/templates.
+ *
+ * The issue weights follow a power law, where the weight skew is the exponent
+ * (0 gives equal weights). The profiles of the opponents are correlated with
+ * the first profile: a correlation of 1 gives identical preferences, 0
+ * independent preferences and -1 opposite preferences.
+ *
+ * Usage: DomainGenerator directory name issues valuesPerIssue weightSkew
+ * correlation profiles [seed]
+ */
+public class DomainGenerator {
+
+	private final int numberOfIssues;
+	private final int valuesPerIssue;
+	private final double weightSkew;
+	private final double correlation;
+	private final Random random;
+
+	public DomainGenerator(int numberOfIssues, int valuesPerIssue,
+			double weightSkew, double correlation, long seed) {
+		if (correlation < -1 || correlation > 1)
+			throw new IllegalArgumentException(
+					"Correlation should be between -1 and 1");
+		this.numberOfIssues = numberOfIssues;
+		this.valuesPerIssue = valuesPerIssue;
+		this.weightSkew = weightSkew;
+		this.correlation = correlation;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Files of a generated domain
+	 */
+	public static class GeneratedDomain {
+		public File domainFile;
+		public List<File> profileFiles = new ArrayList<File>();
+	}
+
+	/**
+	 * Write a domain and its profiles to a directory
+	 *
+	 * @param directory
+	 * @param name
+	 *            name of the domain, used for the file names
+	 * @param profiles
+	 *            the amount of profiles to generate
+	 * @return the generated files
+	 * @throws IOException
+	 */
+	public GeneratedDomain generate(File directory, String name, int profiles)
+			throws IOException {
+		directory.mkdirs();
+		GeneratedDomain result = new GeneratedDomain();
+
+		result.domainFile = new File(directory, name + "_domain.xml");
+		writeDomain(result.domainFile, name);
+
+		double[] baseWeights = generateWeights();
+		double[][] baseEvaluations = new double[numberOfIssues][valuesPerIssue];
+		for (double[] issue : baseEvaluations)
+			for (int v = 0; v < issue.length; v++)
+				issue[v] = random.nextDouble();
+
+		for (int p = 0; p < profiles; p++) {
+			double c = p == 0 ? 1 : correlation;
+			double[] weights = correlate(baseWeights, generateWeights(), c);
+			normalize(weights);
+
+			int[][] evaluations = new int[numberOfIssues][];
+			for (int i = 0; i < numberOfIssues; i++) {
+				double[] noise = new double[valuesPerIssue];
+				for (int v = 0; v < valuesPerIssue; v++)
+					noise[v] = random.nextDouble();
+				evaluations[i] = toEvaluations(correlate(baseEvaluations[i],
+						noise, c));
+			}
+
+			File profile = new File(directory, name + "_util" + (p + 1)
+					+ ".xml");
+			writeProfile(profile, name, weights, evaluations);
+			result.profileFiles.add(profile);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Weights following a power law with the configured skew, in random order
+	 */
+	private double[] generateWeights() {
+		List<Double> weights = new ArrayList<Double>();
+		for (int i = 0; i < numberOfIssues; i++)
+			weights.add(Math.pow(i + 1, -weightSkew));
+		Collections.shuffle(weights, random);
+
+		double[] result = new double[numberOfIssues];
+		for (int i = 0; i < numberOfIssues; i++)
+			result[i] = weights.get(i);
+		return result;
+	}
+
+	/**
+	 * Mix a base vector with noise. Negative correlations mirror the base
+	 * vector within its range.
+	 */
+	private static double[] correlate(double[] base, double[] noise,
+			double correlation) {
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+		for (double b : base) {
+			min = Math.min(min, b);
+			max = Math.max(max, b);
+		}
+
+		double[] result = new double[base.length];
+		for (int i = 0; i < base.length; i++) {
+			double b = correlation >= 0 ? base[i] : max + min - base[i];
+			double mixed = Math.abs(correlation) * b
+					+ (1 - Math.abs(correlation)) * noise[i];
+			result[i] = Math.max(mixed, 1e-6);
+		}
+		return result;
+	}
+
+	private static void normalize(double[] weights) {
+		double sum = 0;
+		for (double w : weights)
+			sum += w;
+		for (int i = 0; i < weights.length; i++)
+			weights[i] /= sum;
+	}
+
+	/**
+	 * Scale evaluations to the integer range 1 to 100 used by the templates
+	 */
+	private static int[] toEvaluations(double[] values) {
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+		for (double v : values) {
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+		}
+
+		int[] result = new int[values.length];
+		for (int i = 0; i < values.length; i++)
+			result[i] = max == min ? 100 : 1 + (int) Math
+					.round(99 * (values[i] - min) / (max - min));
+		return result;
+	}
+
+	private void writeDomain(File file, String name) throws IOException {
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		try {
+			out.println("<negotiation_template> ");
+			out.println("<utility_space number_of_issues=\"" + numberOfIssues
+					+ "\"> ");
+			writeObjectiveStart(out, name);
+			for (int i = 0; i < numberOfIssues; i++) {
+				writeIssueStart(out, i);
+				for (int v = 0; v < valuesPerIssue; v++) {
+					out.println("<item index=\"" + (v + 1) + "\" value=\""
+							+ getValueName(i, v) + "\"> ");
+					out.println("</item> ");
+				}
+				out.println("</issue> ");
+			}
+			out.println("</objective> ");
+			out.println("</utility_space> ");
+			out.println("</negotiation_template> ");
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeProfile(File file, String name, double[] weights,
+			int[][] evaluations) throws IOException {
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		try {
+			out.println("<utility_space> ");
+			writeObjectiveStart(out, name);
+			for (int i = 0; i < numberOfIssues; i++) {
+				writeIssueStart(out, i);
+				for (int v = 0; v < valuesPerIssue; v++) {
+					out.println("<item evaluation=\"" + evaluations[i][v]
+							+ "\" index=\"" + (v + 1) + "\" value=\""
+							+ getValueName(i, v) + "\"> ");
+					out.println("</item> ");
+				}
+				out.println("</issue> ");
+			}
+			for (int i = 0; i < numberOfIssues; i++) {
+				out.println("<weight index=\"" + (i + 1) + "\" value=\""
+						+ weights[i] + "\"> ");
+				out.println("</weight> ");
+			}
+			out.println("</objective> ");
+			out.println("<discount_factor value=\"1.0\"> ");
+			out.println("</discount_factor> ");
+			out.println("<reservation value=\"0.0\"> ");
+			out.println("</reservation> ");
+			out.println("</utility_space> ");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeObjectiveStart(PrintWriter out, String name) {
+		out.println("<objective name=\"" + name
+				+ "\" index=\"0\" description=\"\" etype=\"objective\" "
+				+ "type=\"objective\"> ");
+	}
+
+	private static void writeIssueStart(PrintWriter out, int issue) {
+		out.println("<issue vtype=\"discrete\" name=\"Issue " + (issue + 1)
+				+ "\" index=\"" + (issue + 1)
+				+ "\" etype=\"discrete\" type=\"discrete\"> ");
+	}
+
+	private static String getValueName(int issue, int value) {
+		return "Value " + (issue + 1) + "." + (value + 1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 7) {
+			System.out.println("Usage: DomainGenerator directory name issues "
+					+ "valuesPerIssue weightSkew correlation profiles [seed]");
+			return;
+		}
+
+		long seed = args.length > 7 ? Long.parseLong(args[7]) : 0;
+		DomainGenerator generator = new DomainGenerator(
+				Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				Double.parseDouble(args[4]), Double.parseDouble(args[5]), seed);
+		GeneratedDomain d = generator.generate(new File(args[0]), args[1],
+				Integer.parseInt(args[6]));
+
+		System.out.println("Domain: " + d.domainFile);
+		for (File f : d.profileFiles)
+			System.out.println("Profile: " + f);
+	}
+}
@@ -0,0 +1,58 @@
+package negotiator.group11;
+
+import negotiator.Domain;
+
+/**
+ * How {@link Group11} keeps track of the outcome space, chosen from the size
+ * of the domain.
+ *
+ * FULL - Enumerate and sort all bids, index them on utility and on the values
+ * of their issues, and sort all of them on Nash product whenever an opponent
+ * model changes. INDEXED - Enumerate all bids and index them on utility, but
+ * only keep the best bids on Nash product. LAZY - Enumerate nothing and search
+ * the domain for every bid that is needed.
+ */
+public enum EngineTier {
+	FULL, INDEXED, LAZY;
+
+	/**
+	 * Estimated heap use of an enumerated bid with its own utility, apart from
+	 * the entries of its values
+	 */
+	private static final long bytesPerOutcome = 120;
+	/** Estimated heap use of a value in an enumerated bid */
+	private static final long bytesPerIssue = 40;
+	/**
+	 * Estimated extra heap use of a bid in the FULL tier, for the Nash
+	 * ordering, the outcome codes and the index on issue values
+	 */
+	private static final long bytesPerFullOutcome = 64;
+	private static final long bytesPerFullIssue = 4;
+
+	/**
+	 * Choose the tier for a domain
+	 *
+	 * @param d
+	 * @param config
+	 *            holds the part of the heap the outcome space may take and the
+	 *            amount of bids the FULL tier may sort per round
+	 * @return the tier that fits in the memory and latency budget
+	 */
+	public static EngineTier select(Domain d, Group11Config config) {
+		long outcomes = d.getNumberOfPossibleBids();
+		int issues = d.getIssues().size();
+		double budget = config.getOutcomeMemoryFraction()
+				* Runtime.getRuntime().maxMemory();
+
+		double indexed = (double) outcomes
+				* (bytesPerOutcome + bytesPerIssue * issues);
+		double full = indexed + (double) outcomes
+				* (bytesPerFullOutcome + bytesPerFullIssue * issues);
+
+		if (outcomes <= 0 || outcomes > Integer.MAX_VALUE || indexed > budget)
+			return LAZY;
+		if (full > budget || outcomes > config.getMaxFullOutcomes())
+			return INDEXED;
+		return FULL;
+	}
+}
@@ -0,0 +1,383 @@
+package negotiator.group11;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import negotiator.Bid;
+import negotiator.DeadlineType;
+import negotiator.Domain;
+import negotiator.actions.Accept;
+import negotiator.actions.Action;
+import negotiator.actions.EndNegotiation;
+import negotiator.actions.Inform;
+import negotiator.actions.Offer;
+import negotiator.group11.NegotiationTrace.Header;
+import negotiator.group11.NegotiationTrace.Record;
+import negotiator.group11.NegotiationTraceReplayer.ReplayTimeline;
+import negotiator.group11.OpponentUtilityModel.InvalidBidException;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Runs the optimized implementations side by side with the code of the first
+ * deliverable on the same message streams, and reports where they diverge,
+ * so optimizations can be checked before they are used.
+ *
+ * Every message of a stream is fed to an {@link OpponentUtilityModel} and a
+ * {@link ReferenceOpponentModel} per opponent, and to a {@link Group11} with
+ * the default config and a {@link ReferenceGroup11}. After every message the
+ * modeled utilities of a sample of bids (within a tolerance) and the strategy
+ * classifications of the models are compared, and at every turn the actions
+ * the two agents choose. Differing actions also show where the strategy has
+ * changed since the first deliverable, and the RANDOM turns of the reference
+ * agent are not seeded.
+ *
+ * Streams are generated for all scenarios of a template directory, with two
+ * simulated opponents that make small changes to earlier bids, or replayed
+ * from recorded {@link NegotiationTrace}s.
+ *
+ * Usage: EquivalenceHarness [templateDirectory] [streams] [rounds]
+ *
+ * or: EquivalenceHarness domain.xml profile.xml trace...
+ */
+public class EquivalenceHarness {
+
+	/** Largest difference in modeled utility that is not a divergence */
+	private static final double tolerance = 1e-9;
+	/** Amount of bids on which the modeled utilities are compared */
+	private static final int utilitySamples = 256;
+	/** Probability that a simulated opponent accepts the current offer */
+	private static final double acceptProbability = 0.05;
+	private static final String[] opponentNames = { "Opponent 1",
+			"Opponent 2" };
+
+	private final Domain domain;
+	private final String utilitySpaceFile;
+	private final BidEncoder encoder;
+	private final List<Bid> samples;
+
+	/**
+	 * @param domain
+	 *            a domain with only discrete issues
+	 * @param utilitySpaceFile
+	 *            the profile of the agents
+	 */
+	public EquivalenceHarness(Domain domain, String utilitySpaceFile) {
+		this.domain = domain;
+		this.utilitySpaceFile = utilitySpaceFile;
+		this.encoder = new BidEncoder(domain);
+
+		samples = new ArrayList<Bid>();
+		long step = Math.max(1, encoder.getSize() / utilitySamples);
+		for (long code = 0; code < encoder.getSize(); code += step)
+			samples.add(encoder.decode(code));
+	}
+
+	/**
+	 * The divergences found in one or more streams
+	 */
+	public static class Divergences {
+		public int streams;
+		public int messages;
+		/** Messages after which a modeled utility differed */
+		public int utilities;
+		/** Messages after which a strategy classification differed */
+		public int strategies;
+		/** Turns in which the agents chose a different action */
+		public int actions;
+		public double maxUtilityDifference;
+
+		public void add(Divergences other) {
+			streams += other.streams;
+			messages += other.messages;
+			utilities += other.utilities;
+			strategies += other.strategies;
+			actions += other.actions;
+			maxUtilityDifference = Math.max(maxUtilityDifference,
+					other.maxUtilityDifference);
+		}
+
+		public boolean isEquivalent() {
+			return utilities == 0 && strategies == 0 && actions == 0;
+		}
+
+		public String toString() {
+			return String.format("streams=%d messages=%d utilities=%d "
+					+ "strategies=%d actions=%d maxdiff=%.3g", streams,
+					messages, utilities, strategies, actions,
+					maxUtilityDifference);
+		}
+	}
+
+	/**
+	 * Both implementations fed with the same stream of messages
+	 */
+	private class Comparison {
+		final ReplayTimeline timeline = new ReplayTimeline();
+		final Group11 optimized;
+		final ReferenceGroup11 reference;
+		final Map<String, OpponentUtilityModel> optimizedModels = new HashMap<String, OpponentUtilityModel>();
+		final Map<String, ReferenceOpponentModel> referenceModels = new HashMap<String, ReferenceOpponentModel>();
+		final Divergences result = new Divergences();
+		/** The last offer of anyone, as the agents see it */
+		Bid lastBid;
+
+		Comparison(Map<DeadlineType, Object> deadlines, long randomSeed)
+				throws Exception {
+			optimized = new Group11(new UtilitySpace(domain, utilitySpaceFile),
+					deadlines, timeline, randomSeed, new Group11Config());
+			reference = new ReferenceGroup11(new UtilitySpace(domain,
+					utilitySpaceFile), deadlines, timeline, randomSeed);
+			result.streams = 1;
+		}
+
+		/**
+		 * Tell both agents the amount of parties, as genius does at the start
+		 */
+		void inform(int parties) {
+			Action inform = new Inform().setName("NumberOfAgents").setValue(
+					parties);
+			optimized.receiveMessage(optimized.getPartyId(), inform);
+			reference.receiveMessage(reference.getPartyId(), inform);
+		}
+
+		void receive(String sender, Action action) throws Exception {
+			optimized.receiveMessage(sender, action);
+			reference.receiveMessage(sender, action);
+
+			OpponentUtilityModel o = optimizedModels.get(sender);
+			ReferenceOpponentModel r = referenceModels.get(sender);
+			if (o == null) {
+				o = OpponentUtilityModel.create(domain, 1);
+				r = new ReferenceOpponentModel(domain);
+				optimizedModels.put(sender, o);
+				referenceModels.put(sender, r);
+			}
+			update(o, action);
+			update(r, action);
+			if (action instanceof Offer)
+				lastBid = Action.getBidFromAction(action);
+
+			result.messages++;
+			compare(o, r);
+		}
+
+		private void update(OpponentUtilityModel m, Action action) {
+			try {
+				if (action instanceof Offer)
+					m.addOffer(lastBid, Action.getBidFromAction(action));
+				else if (action instanceof Accept)
+					m.addAccept(lastBid);
+			} catch (InvalidBidException e) {
+				// A bid only one implementation rejects shows up as a
+				// difference in modeled utilities
+			}
+		}
+
+		private void update(ReferenceOpponentModel m, Action action) {
+			try {
+				if (action instanceof Offer)
+					m.addOffer(lastBid, Action.getBidFromAction(action));
+				else if (action instanceof Accept)
+					m.addAccept(lastBid);
+			} catch (Exception e) {
+				// Same as above
+			}
+		}
+
+		private void compare(OpponentUtilityModel o, ReferenceOpponentModel r) {
+			if (!o.getMostLikelyStrategy().name()
+					.equals(r.getMostLikelyStrategy().name()))
+				result.strategies++;
+
+			double maxDifference = 0;
+			for (Bid b : samples) {
+				double ou = o.getUtility(b);
+				double ru;
+				try {
+					ru = r.getUtility(b);
+				} catch (Exception e) {
+					ru = Double.NaN;
+				}
+				if (Double.isNaN(ou) != Double.isNaN(ru))
+					maxDifference = Double.POSITIVE_INFINITY;
+				else if (!Double.isNaN(ou))
+					maxDifference = Math.max(maxDifference, Math.abs(ou - ru));
+			}
+			if (maxDifference > tolerance)
+				result.utilities++;
+			result.maxUtilityDifference = Math.max(
+					result.maxUtilityDifference, maxDifference);
+		}
+
+		/**
+		 * Let both agents choose an action
+		 *
+		 * @return the action of the optimized agent
+		 */
+		@SuppressWarnings("rawtypes")
+		Action choose(List<Class> validActions) {
+			Action o = optimized.chooseAction(validActions);
+			Action r = reference.chooseAction(validActions);
+			if (!isSameAction(o, r))
+				result.actions++;
+			if (o instanceof Offer)
+				lastBid = Action.getBidFromAction(o);
+			return o;
+		}
+	}
+
+	private static boolean isSameAction(Action a, Action b) {
+		if (a == null || b == null || a.getClass() != b.getClass())
+			return a == b;
+		if (a instanceof Offer)
+			return Action.getBidFromAction(a).equals(
+					Action.getBidFromAction(b));
+		return true;
+	}
+
+	/**
+	 * Compare the implementations on a generated stream. Every round the
+	 * agents choose an action first, after which each simulated opponent
+	 * either accepts the last offer or offers one of the earlier bids with one
+	 * issue changed.
+	 *
+	 * @param rounds
+	 *            the round deadline
+	 * @param seed
+	 *            seed of the agents and the simulated opponents
+	 * @return the divergences in the stream
+	 * @throws Exception
+	 *             when the profile can not be read
+	 */
+	@SuppressWarnings("rawtypes")
+	public Divergences compareGenerated(int rounds, long seed)
+			throws Exception {
+		Map<DeadlineType, Object> deadlines = new HashMap<DeadlineType, Object>();
+		deadlines.put(DeadlineType.ROUND, rounds);
+		Comparison c = new Comparison(deadlines, seed);
+		Random random = new Random(seed);
+		HashMap<String, Bid> ownLastBids = new HashMap<String, Bid>();
+		c.inform(opponentNames.length + 1);
+
+		List<Class> firstActions = Arrays.<Class> asList(Offer.class);
+		List<Class> allActions = Arrays.<Class> asList(Accept.class,
+				Offer.class, EndNegotiation.class);
+
+		for (int round = 0; round < rounds; round++) {
+			c.timeline.setTime((double) round / rounds);
+			c.choose(c.lastBid == null ? firstActions : allActions);
+
+			for (String opponent : opponentNames) {
+				if (c.lastBid != null
+						&& random.nextDouble() < acceptProbability) {
+					c.receive(opponent, new Accept());
+					continue;
+				}
+
+				// Change our own previous bid or the last offer of anyone
+				Bid base = random.nextBoolean() ? ownLastBids.get(opponent)
+						: c.lastBid;
+				Bid bid = domain.getRandomBid(random);
+				if (base != null) {
+					int issue = base.getIssues()
+							.get(random.nextInt(base.getIssues().size()))
+							.getNumber();
+					Bid changed = new Bid(base);
+					changed.setValue(issue, bid.getValues().get(issue));
+					bid = changed;
+				}
+				ownLastBids.put(opponent, bid);
+				c.receive(opponent, new Offer(bid));
+			}
+		}
+		return c.result;
+	}
+
+	/**
+	 * Compare the implementations on the messages of a recorded trace. The
+	 * agents choose an action wherever the recorded agent did.
+	 *
+	 * @param trace
+	 * @return the divergences in the trace
+	 * @throws Exception
+	 *             when the profile or trace can not be read
+	 */
+	public Divergences compareTrace(File trace) throws Exception {
+		NegotiationTraceReplayer replayer = new NegotiationTraceReplayer(
+				domain, utilitySpaceFile);
+		NegotiationTrace.Reader reader = new NegotiationTrace.Reader(trace);
+		try {
+			Header header = reader.getHeader();
+			Map<DeadlineType, Object> deadlines = new HashMap<DeadlineType, Object>();
+			if (header.roundDeadline != 0)
+				deadlines.put(DeadlineType.ROUND, header.roundDeadline);
+			if (header.timeDeadline != 0)
+				deadlines.put(DeadlineType.TIME, header.timeDeadline);
+			Comparison c = new Comparison(deadlines, header.randomSeed);
+
+			Record r;
+			while ((r = reader.next()) != null) {
+				c.timeline.setTime(r.time);
+				if (r.isReceive()) {
+					Action action = replayer.toAction(r);
+					if (action != null)
+						c.receive(r.sender, action);
+				} else if (r.isChoose()) {
+					c.choose(NegotiationTraceReplayer.toValidActions(r));
+				}
+			}
+			return c.result;
+		} finally {
+			reader.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length >= 3 && args[0].endsWith(".xml")) {
+			EquivalenceHarness harness = new EquivalenceHarness(new Domain(
+					args[0]), args[1]);
+			Divergences total = new Divergences();
+			for (int t = 2; t < args.length; t++) {
+				Divergences d = harness.compareTrace(new File(args[t]));
+				System.out.println(args[t] + ": " + d);
+				total.add(d);
+			}
+			printTotal(total);
+			return;
+		}
+
+		File directory = new File(args.length > 0 ? args[0]
+				: Scenario.DEFAULT_TEMPLATE_DIRECTORY);
+		int streams = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		Divergences total = new Divergences();
+		for (Scenario s : Scenario.loadAll(directory)) {
+			if (!BidEncoder.supports(s.getDomain())) {
+				System.out.println(s + ": skipped, not a discrete domain");
+				continue;
+			}
+			Divergences scenario = new Divergences();
+			for (int i = 0; i < streams; i++) {
+				File profile = s.getProfileFiles().get(
+						i % s.getProfileFiles().size());
+				EquivalenceHarness harness = new EquivalenceHarness(
+						s.getDomain(), profile.getPath());
+				scenario.add(harness.compareGenerated(rounds, i));
+			}
+			System.out.println(s + ": " + scenario);
+			total.add(scenario);
+		}
+		printTotal(total);
+	}
+
+	private static void printTotal(Divergences total) {
+		System.out.println("Total: " + total);
+		System.out.println(total.isEquivalent() ? "EQUIVALENT" : "DIVERGED");
+	}
+}
@@ -0,0 +1,320 @@
+package negotiator.group11;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a {@link UtilityEvaluator} class for one set of evaluations, with
+ * the amount of issues, their cardinalities and every weighted evaluation
+ * baked into the bytecode as constants.
+ *
+ * The generated getUtility(long) decodes the value of every issue with a
+ * constant divisor and selects its evaluation with a tableswitch over ldc2_w
+ * constants, so it reads no fields or arrays and the JIT sees straight-line
+ * code per issue. The class file is written by hand and defined in a new
+ * class loader of its own, as Java 7 has no hidden classes; the class is
+ * unloaded together with its loader once the evaluator is no longer used.
+ *
+ * Class files of version 49 are written, which are verified without stack
+ * map frames.
+ */
+public class EvaluatorGenerator {
+
+	/**
+	 * Most values of all issues together that are generated; a switch case
+	 * takes 10 bytes of code and a branch can jump at most 32767 bytes
+	 */
+	public static final int maxValues = 2048;
+
+	private static final String superName = "negotiator/group11/UtilityEvaluator";
+	private static final String namePrefix = "negotiator.group11.generated.Evaluator";
+	private static final AtomicInteger generated = new AtomicInteger();
+
+	// Class file constants
+	private static final int MAGIC = 0xCAFEBABE;
+	private static final int MAJOR_VERSION = 49;
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	// Opcodes
+	private static final int DCONST_0 = 0x0e;
+	private static final int LDC2_W = 0x14;
+	private static final int LLOAD_1 = 0x1f;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int LSTORE_1 = 0x40;
+	private static final int DADD = 0x63;
+	private static final int LDIV = 0x6d;
+	private static final int LREM = 0x71;
+	private static final int L2I = 0x88;
+	private static final int GOTO = 0xa7;
+	private static final int TABLESWITCH = 0xaa;
+	private static final int DRETURN = 0xaf;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKESPECIAL = 0xb7;
+
+	/**
+	 * Loader of a single generated class, which leaves all other classes to
+	 * the loader of the agent
+	 */
+	private static class GeneratedClassLoader extends ClassLoader {
+
+		GeneratedClassLoader() {
+			super(UtilityEvaluator.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] classFile) {
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+
+	/**
+	 * The constant pool of a class file, in which equal entries are shared
+	 */
+	private static class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> indices = new HashMap<String, Integer>();
+		private int count = 1;
+
+		int utf8(String s) throws IOException {
+			Integer index = indices.get("U" + s);
+			if (index != null)
+				return index;
+			out.writeByte(CONSTANT_UTF8);
+			out.writeUTF(s);
+			return add("U" + s, 1);
+		}
+
+		int classRef(String internalName) throws IOException {
+			Integer index = indices.get("C" + internalName);
+			if (index != null)
+				return index;
+			int name = utf8(internalName);
+			out.writeByte(CONSTANT_CLASS);
+			out.writeShort(name);
+			return add("C" + internalName, 1);
+		}
+
+		int methodRef(String owner, String name, String descriptor)
+				throws IOException {
+			String key = "M" + owner + "." + name + descriptor;
+			Integer index = indices.get(key);
+			if (index != null)
+				return index;
+			int ownerIndex = classRef(owner);
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			out.writeByte(CONSTANT_NAME_AND_TYPE);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+			int nameAndType = add("N" + key, 1);
+			out.writeByte(CONSTANT_METHODREF);
+			out.writeShort(ownerIndex);
+			out.writeShort(nameAndType);
+			return add(key, 1);
+		}
+
+		int longConstant(long value) throws IOException {
+			Integer index = indices.get("J" + value);
+			if (index != null)
+				return index;
+			out.writeByte(CONSTANT_LONG);
+			out.writeLong(value);
+			return add("J" + value, 2);
+		}
+
+		int doubleConstant(double value) throws IOException {
+			String key = "D" + Double.doubleToRawLongBits(value);
+			Integer index = indices.get(key);
+			if (index != null)
+				return index;
+			out.writeByte(CONSTANT_DOUBLE);
+			out.writeDouble(value);
+			return add(key, 2);
+		}
+
+		/** Longs and doubles take two entries */
+		private int add(String key, int size) {
+			int index = count;
+			indices.put(key, index);
+			count += size;
+			return index;
+		}
+	}
+
+	/**
+	 * @return true iff an evaluator can be generated for issues with these
+	 *         cardinalities
+	 */
+	public static boolean supports(int[] cardinalities) {
+		int values = 0;
+		for (int c : cardinalities)
+			values += c;
+		return cardinalities.length > 0 && values <= maxValues;
+	}
+
+	/**
+	 * Generate an evaluator
+	 *
+	 * @param cardinalities
+	 *            the amount of values per issue, in encoding order
+	 * @param evaluations
+	 *            the weighted evaluation per value index per issue
+	 * @return the evaluator, or null if it can not be generated
+	 */
+	public static UtilityEvaluator generate(int[] cardinalities,
+			double[][] evaluations) {
+		if (!supports(cardinalities))
+			return null;
+		String name = namePrefix + generated.incrementAndGet();
+		try {
+			byte[] classFile = writeClass(name.replace('.', '/'),
+					cardinalities, evaluations);
+			return (UtilityEvaluator) new GeneratedClassLoader()
+					.define(name, classFile).newInstance();
+		} catch (IOException | ReflectiveOperationException | LinkageError e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static byte[] writeClass(String internalName,
+			int[] cardinalities, double[][] evaluations) throws IOException {
+		ConstantPool pool = new ConstantPool();
+		int thisClass = pool.classRef(internalName);
+		int superClass = pool.classRef(superName);
+		int code = pool.utf8("Code");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		// Methods are written first, as they add to the constant pool
+		out.writeShort(2);
+		writeMethod(out, pool.utf8("<init>"), pool.utf8("()V"), code, 1, 1,
+				writeConstructor(pool));
+		// The sum, a value index, the code and a divisor
+		writeMethod(out, pool.utf8("getUtility"), pool.utf8("(J)D"), code, 7,
+				3, writeGetUtility(pool, cardinalities, evaluations));
+		out.writeShort(0); // attributes
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(result);
+		header.writeInt(MAGIC);
+		header.writeShort(0);
+		header.writeShort(MAJOR_VERSION);
+		header.writeShort(pool.count);
+		header.write(pool.bytes.toByteArray());
+		header.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		header.writeShort(thisClass);
+		header.writeShort(superClass);
+		header.writeShort(0); // interfaces
+		header.writeShort(0); // fields
+		header.write(bytes.toByteArray());
+		return result.toByteArray();
+	}
+
+	private static void writeMethod(DataOutputStream out, int name,
+			int descriptor, int codeAttribute, int maxStack, int maxLocals,
+			byte[] code) throws IOException {
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1);
+		out.writeShort(codeAttribute);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+	}
+
+	private static byte[] writeConstructor(ConstantPool pool)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream code = new DataOutputStream(bytes);
+		code.writeByte(ALOAD_0);
+		code.writeByte(INVOKESPECIAL);
+		code.writeShort(pool.methodRef(superName, "<init>", "()V"));
+		code.writeByte(RETURN);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Write the code of getUtility(long), which adds the evaluation of every
+	 * issue to 0 in encoding order, like {@link UtilityTable} does. Per issue
+	 * it is:
+	 *
+	 * <pre>
+	 * lload_1; ldc2_w c; lrem; l2i      (the last issue only loads the code)
+	 * lload_1; ldc2_w c; ldiv; lstore_1 (not for the last issue)
+	 * tableswitch 0..c-1
+	 * case v: ldc2_w evaluation; goto join
+	 * default: ldc2_w NaN
+	 * join: dadd
+	 * </pre>
+	 */
+	private static byte[] writeGetUtility(ConstantPool pool,
+			int[] cardinalities, double[][] evaluations) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream code = new DataOutputStream(bytes);
+		code.writeByte(DCONST_0);
+		for (int i = 0; i < cardinalities.length; i++) {
+			int c = cardinalities[i];
+			boolean last = i == cardinalities.length - 1;
+
+			// The value index stays on the stack, the rest of the code is
+			// kept in local 1
+			code.writeByte(LLOAD_1);
+			if (!last) {
+				int divisor = pool.longConstant(c);
+				code.writeByte(LDC2_W);
+				code.writeShort(divisor);
+				code.writeByte(LREM);
+				code.writeByte(L2I);
+				code.writeByte(LLOAD_1);
+				code.writeByte(LDC2_W);
+				code.writeShort(divisor);
+				code.writeByte(LDIV);
+				code.writeByte(LSTORE_1);
+			} else
+				code.writeByte(L2I);
+
+			int switchStart = code.size();
+			code.writeByte(TABLESWITCH);
+			while (code.size() % 4 != 0)
+				code.writeByte(0);
+			int casesStart = code.size() + 12 + 4 * c;
+			int defaultStart = casesStart + 6 * c;
+			int join = defaultStart + 3;
+			code.writeInt(defaultStart - switchStart);
+			code.writeInt(0);
+			code.writeInt(c - 1);
+			for (int v = 0; v < c; v++)
+				code.writeInt(casesStart + 6 * v - switchStart);
+			for (int v = 0; v < c; v++) {
+				code.writeByte(LDC2_W);
+				code.writeShort(pool.doubleConstant(evaluations[i][v]));
+				int gotoStart = code.size();
+				code.writeByte(GOTO);
+				code.writeShort(join - gotoStart);
+			}
+			code.writeByte(LDC2_W);
+			code.writeShort(pool.doubleConstant(Double.NaN));
+			code.writeByte(DADD);
+		}
+		code.writeByte(DRETURN);
+		return bytes.toByteArray();
+	}
+}
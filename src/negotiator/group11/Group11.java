@@ -4,15 +4,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
+import java.util.PriorityQueue;
 
-import misc.Range;
 import negotiator.Bid;
 import negotiator.BidHistory;
 import negotiator.DeadlineType;
+import negotiator.Domain;
 import negotiator.Timeline;
 import negotiator.actions.Accept;
 import negotiator.actions.Action;
@@ -21,8 +22,8 @@ import negotiator.actions.Inform;
 import negotiator.actions.Offer;
 import negotiator.bidding.BidDetails;
 import negotiator.boaframework.SortedOutcomeSpace;
+import negotiator.group11.OpponentBidHistory.BidModificationStrategy;
 import negotiator.group11.OpponentUtilityModel.InvalidBidException;
-import negotiator.group11.OpponentUtilityModel.InvalidDomainException;
 import negotiator.parties.AbstractNegotiationParty;
 import negotiator.utility.UtilitySpace;
 
@@ -31,17 +32,73 @@ import negotiator.utility.UtilitySpace;
  */
 public class Group11 extends AbstractNegotiationParty {
 
+	/** How the outcome space is kept, chosen from the size of the domain */
+	private EngineTier engineTier;
+	/** All bids, or null in the LAZY tier */
 	private SortedOutcomeSpace possibleBids;
+	private OutcomeSearch bidIndex;
 	private ArrayList<BidDetailsWithNash> nashBids;
+
+	/** Incremented every time an opponent model is added or changes */
+	private int opponentVersion;
+	/** Incremented every time a bid is added to allBids */
+	private int historyVersion;
+
+	private final Memoized<ArrayList<BidDetailsWithNash>> sortedOnNashProduct = new Memoized<ArrayList<BidDetailsWithNash>>() {
+		@Override
+		protected ArrayList<BidDetailsWithNash> compute() {
+			return sortOutcomeSpaceOnNashProduct();
+		}
+	};
+	private final Memoized<BidDetails> bestBid = new Memoized<BidDetails>() {
+		@Override
+		protected BidDetails compute() {
+			return allBids.getBestBidDetails();
+		}
+	};
+	private final Memoized<BidDetails> maxBid = new Memoized<BidDetails>() {
+		@Override
+		protected BidDetails compute() {
+			return possibleBids != null ? possibleBids.getMaxBidPossible()
+					: bidIndex.getMaxBid();
+		}
+	};
 	private HashMap<Object, OpponentUtilityModel> opponents;
+	/** Population of every opponent, when populations are enabled */
+	private HashMap<Object, OpponentPopulation> populations;
+	private BidEncoder encoder;
+	private NearestBidIndex nearestBids;
+	private UtilityEvaluator ownTable;
+	private MonteCarloLookahead lookahead;
+	/** Time of the first round, to measure the time per round */
+	private long sessionStart;
+	private UtilityCache ownUtilities;
+	private HashMap<OpponentUtilityModel, UtilityCache> opponentUtilities;
+	private long[] outcomeCodes;
 	private BidHistory allBids;
 	private int round;
 	private double lastUtility;
-	private static final double startReservationUtility = 0.95;
-	private double reservationUtility = startReservationUtility;
+	private final Group11Config config;
+	private double reservationUtility;
 
 	private int lastAcceptCount;
 
+	/**
+	 * Messages received since our last action, in order, when the config
+	 * batches messages
+	 */
+	private final List<Object> pendingSenders = new ArrayList<Object>();
+	private final List<Action> pendingActions = new ArrayList<Action>();
+
+	private NegotiationTraceRecorder recorder;
+	private OpponentModelStore modelStore;
+
+	/**
+	 * Rounds between saving the opponent models, as genius does not tell us
+	 * when the session ends
+	 */
+	private static final int modelSaveInterval = 10;
+
 	/**
 	 * Please keep this constructor. This is called by genius.
 	 *
@@ -57,17 +114,128 @@ public class Group11 extends AbstractNegotiationParty {
 	public Group11(UtilitySpace utilitySpace,
 			Map<DeadlineType, Object> deadlines, Timeline timeline,
 			long randomSeed) {
+		this(utilitySpace, deadlines, timeline, randomSeed, new Group11Config());
+	}
+
+	/**
+	 * Create the agent with other tuning constants than the defaults
+	 *
+	 * @param utilitySpace
+	 * @param deadlines
+	 * @param timeline
+	 * @param randomSeed
+	 * @param config
+	 *            The tuning constants to use.
+	 */
+	public Group11(UtilitySpace utilitySpace,
+			Map<DeadlineType, Object> deadlines, Timeline timeline,
+			long randomSeed, Group11Config config) {
 		super(utilitySpace, deadlines, timeline, randomSeed);
 
+		this.config = config;
 		this.round = 0;
 		this.lastUtility = 1;
+		this.reservationUtility = config.getStartReservationUtility();
 
-		// create a list of bids
-		possibleBids = new SortedOutcomeSpace(utilitySpace);
 		allBids = new BidHistory();
 		opponents = new HashMap<Object, OpponentUtilityModel>();
+		populations = new HashMap<Object, OpponentPopulation>();
+		opponentUtilities = new HashMap<OpponentUtilityModel, UtilityCache>();
+
+		// Utilities can only be cached for bids that can be encoded
+		if (BidEncoder.supports(utilitySpace.getDomain())) {
+			encoder = new BidEncoder(utilitySpace.getDomain());
+			ownTable = UtilityTable.compile(utilitySpace, encoder);
+		}
+
+		// create a list of bids, unless the domain is too large for it
+		engineTier = EngineTier.select(utilitySpace.getDomain(), config);
+		if (engineTier == EngineTier.LAZY) {
+			bidIndex = new LazyBidSearch(utilitySpace, rand) {
+				@Override
+				protected double getUtility(Bid b) {
+					return getOwnUtility(b);
+				}
+			};
+		} else {
+			possibleBids = new SortedOutcomeSpace(utilitySpace);
+			bidIndex = new UtilityBandIndex(possibleBids.getAllOutcomes(),
+					utilityBandWidth);
+		}
+
+		if (encoder != null) {
+			if (ownTable != null
+					&& !ownTable.check(getCheckOutcomes(), encoder,
+							utilityTableCheckSamples)) {
+				System.out.println("WARNING :: UTILITY TABLE DIFFERS :: "
+						+ utilitySpace.getFileName());
+				ownTable = null;
+			}
+			// Spaces that can not be compiled use a cache instead
+			if (ownTable == null)
+				ownUtilities = new UtilityCache(ownUtilityCacheSize);
+			if (engineTier == EngineTier.FULL)
+				nearestBids = new NearestBidIndex(
+						possibleBids.getAllOutcomes(), encoder);
+		}
+
+		if (config.getLookaheadBudgetFraction() > 0)
+			lookahead = new MonteCarloLookahead(
+					utilitySpace.isDiscounted() ? utilitySpace
+							.getDiscountFactor() : 1,
+					utilitySpace.getReservationValueUndiscounted(), randomSeed);
 
 		utilitySpace.setReservationValue(reservationUtility);
+
+		recorder = NegotiationTraceRecorder.createIfEnabled(utilitySpace,
+				deadlines, randomSeed);
+		modelStore = OpponentModelStore.createIfEnabled();
+	}
+
+	/**
+	 * Amount of bids on which the own utility table is compared to genius
+	 */
+	private static final int utilityTableCheckSamples = 1000;
+
+	/**
+	 * Amount of random bids scored on Nash product in the LAZY tier
+	 */
+	private static final int lazyNashSamples = 4096;
+
+	/**
+	 * Maximum amount of cached own utilities
+	 */
+	private static final int ownUtilityCacheSize = 4096;
+
+	/**
+	 * Maximum amount of cached utilities per opponent model
+	 */
+	private static final int opponentUtilityCacheSize = 65536;
+
+	/**
+	 * @return how the outcome space is kept, which depends on the size of the
+	 *         domain
+	 */
+	public EngineTier getEngineTier() {
+		return engineTier;
+	}
+
+	/**
+	 * Get the bids to compare the own utility table to genius on
+	 *
+	 * @return all bids, or random bids in the LAZY tier, with the utility
+	 *         genius gives them
+	 */
+	private List<BidDetails> getCheckOutcomes() {
+		if (possibleBids != null)
+			return possibleBids.getAllOutcomes();
+
+		List<BidDetails> result = new ArrayList<BidDetails>();
+		for (int i = 0; i < utilityTableCheckSamples; i++) {
+			Bid b = getUtilitySpace().getDomain().getRandomBid(rand);
+			result.add(new BidDetails(b, getUtility(b)));
+		}
+		return result;
 	}
 
 	/**
@@ -77,9 +245,10 @@ public class Group11 extends AbstractNegotiationParty {
 	 * @return
 	 */
 	private Offer bid(Bid bid) {
-		BidDetails bd = new BidDetails(bid, getUtility(bid));
+		BidDetails bd = new BidDetails(bid, getOwnUtility(bid));
 		lastUtility = bd.getMyUndiscountedUtil();
 		allBids.add(bd);
+		historyVersion++;
 		return new Offer(bid);
 	}
 
@@ -94,29 +263,53 @@ public class Group11 extends AbstractNegotiationParty {
 	 */
 	@Override
 	public Action chooseAction(List<Class> validActions) {
+		if (recorder == null)
+			return decideAction(validActions);
+
+		long start = System.nanoTime();
+		Action action = decideAction(validActions);
+		recorder.recordChooseAction(getTime(), validActions, action,
+				System.nanoTime() - start);
+		return action;
+	}
+
+	/**
+	 * Decide which action to perform this round
+	 * 
+	 * @param validActions
+	 * @return The chosen action.
+	 */
+	@SuppressWarnings("rawtypes")
+	private Action decideAction(List<Class> validActions) {
+		processPendingMessages();
+		if (this.round == 0)
+			sessionStart = System.nanoTime();
 		this.round++;
+		if (modelStore != null && round % modelSaveInterval == 0)
+			saveOpponentModels();
+
 		double currentTime = getTime();
 		// if we are the first party, make the best offer.
 		if (!validActions.contains(Accept.class))
 			return getActionForTactic(Tactics.ASOCIAL);
 
 		// Give in to our reservation value in the endgame;
-		double timeTostartGiveInReservationValue = 0.9;
+		double timeTostartGiveInReservationValue = config.getTimeToStartGiveIn();
 		if (currentTime > timeTostartGiveInReservationValue) {
 			double giveInProgress = (currentTime - timeTostartGiveInReservationValue)
 					/ (1 - timeTostartGiveInReservationValue);
-			reservationUtility = startReservationUtility
-					- (0.4 * giveInProgress);
+			reservationUtility = config.getStartReservationUtility()
+					- (config.getGiveInReservationDrop() * giveInProgress);
 			utilitySpace.setReservationValue(reservationUtility);
 		}
 
 		if (previousBidHasBeenAcceptedEnough()) {
-			reservationUtility *= 0.9;
+			reservationUtility *= config.getAcceptedReservationMultiplier();
 		}
 
 		BidDetails lastBid = allBids.getLastBidDetails();
 
-		if (currentTime > 0.95
+		if (currentTime > config.getAcceptAnyTime()
 				|| (lastBid != null && lastBid.getMyUndiscountedUtil() > reservationUtility)) {
 			return new Accept();
 		} else {
@@ -141,7 +334,10 @@ public class Group11 extends AbstractNegotiationParty {
 				// Long negotiation
 				if (weTrustOurOpponentModel()) {
 					// Enough rounds have passed
-					sortOutcomeSpaceOnNashProduct();
+					nashBids = sortedOnNashProduct.get(opponentVersion);
+
+					if (lookahead != null)
+						return getActionForTactic(Tactics.LOOKAHEAD);
 
 					int unknownCounter = 0;
 					int modifyPreviousCounter = 0;
@@ -165,7 +361,7 @@ public class Group11 extends AbstractNegotiationParty {
 							&& unknownCounter >= modifySelfCounter)
 						return getActionForTactic(Tactics.BESTNASH);
 					else if (modifyPreviousCounter >= modifySelfCounter)
-						return getActionForTactic(Tactics.EDGEPUSHER);
+						return getActionForTactic(Tactics.NEARBY);
 					else
 						return getActionForTactic(Tactics.BESTNASH);
 				} else {
@@ -177,27 +373,76 @@ public class Group11 extends AbstractNegotiationParty {
 	}
 
 	/**
-	 * The minimum required rounds needed to make an opponent model
-	 */
-	private static final int numberOfRoundForOpponentModel = 50;
-
-	/**
-	 * Determine whether we will ever have an opponent model significant enough
+	 * Determine whether we will ever have an opponent model significant enough.
+	 * A model that has already converged is always used.
 	 * 
 	 * @return true iff there will never be a trusted opponent model
 	 */
 	private boolean thereWillNeverBeATrustedOpponentModel() {
-		return (round / getTime()) < numberOfRoundForOpponentModel;
+		return !opponentModelsHaveConverged()
+				&& (round / getTime()) + getPriorObservations() < config
+						.getNumberOfRoundsForOpponentModel();
 	}
 
 	/**
-	 * Determine whether the current opponent model is trustworthy based on the
-	 * amount of rounds passed
+	 * Determine whether the current opponent model is trustworthy. This is the
+	 * case as soon as the models of all opponents have stabilized, or
+	 * otherwise when enough rounds have passed, including the offers observed
+	 * in earlier sessions. A session too short to reach the maximum rounds
+	 * for the model trusts it after the minimum rounds instead, so it does not
+	 * keep building a model it never uses.
 	 * 
 	 * @return true iff the opponent model is trusted
 	 */
 	private boolean weTrustOurOpponentModel() {
-		return round > numberOfRoundForOpponentModel;
+		double observations = round + getPriorObservations();
+		int maxRounds = config.getMaxRoundsForOpponentModel();
+		if ((round / getTime()) + getPriorObservations() <= maxRounds)
+			maxRounds = Math.min(maxRounds,
+					config.getNumberOfRoundsForOpponentModel());
+		return opponentModelsHaveConverged() || observations > maxRounds;
+	}
+
+	/**
+	 * Determine whether the models of all opponents that made offers have
+	 * stopped changing
+	 * 
+	 * @return true iff all opponent models have converged
+	 */
+	private boolean opponentModelsHaveConverged() {
+		boolean anyOpponent = false;
+		for (OpponentUtilityModel m : opponents.values()) {
+			if (m.getNumberOfOffers() == 0)
+				continue;
+			if (!m.hasConverged(config.getConvergenceThreshold()))
+				return false;
+			anyOpponent = true;
+		}
+		return anyOpponent;
+	}
+
+	/**
+	 * @return the amount of offers from earlier sessions that all opponent
+	 *         models were warm started with
+	 */
+	private int getPriorObservations() {
+		if (opponents.isEmpty())
+			return 0;
+		int prior = Integer.MAX_VALUE;
+		for (OpponentUtilityModel m : opponents.values())
+			prior = Math.min(prior, m.getPriorObservations());
+		return prior;
+	}
+
+	/**
+	 * Store what we learned about our opponents for later sessions
+	 */
+	private void saveOpponentModels() {
+		String domainName = getUtilitySpace().getDomain().getName();
+		for (Entry<Object, OpponentUtilityModel> e : opponents.entrySet())
+			modelStore.save(domainName,
+					OpponentModelStore.getOpponentKey(e.getKey()),
+					e.getValue());
 	}
 
 	/**
@@ -220,13 +465,30 @@ public class Group11 extends AbstractNegotiationParty {
 	 * best bid that has ever been done by any agent ASOCIAL - Offer the best
 	 * bid possible for you HARDTOGET - Offer a bid of 0.99 * the previous
 	 * utility EDGEPUSHER - Offer a bid slightly better than the one before
-	 * GIVEIN - Offer a bid near your reservation value THEFINGER - Leave the
-	 * negotiation
+	 * GIVEIN - Offer a bid near your reservation value NEARBY - Offer the bid
+	 * above your reservation value that differs least from the last offer
+	 * LOOKAHEAD - Offer the bid with the best expected utility in simulations
+	 * of the rest of the negotiation THEFINGER - Leave the negotiation
 	 */
 	private enum Tactics {
-		RANDOM, BESTNASH, NOSTALGIAN, ASOCIAL, HARDTOGET, EDGEPUSHER, GIVEIN, THEFINGER
+		RANDOM, BESTNASH, NOSTALGIAN, ASOCIAL, HARDTOGET, EDGEPUSHER, GIVEIN, NEARBY, LOOKAHEAD, THEFINGER
 	}
 
+	/**
+	 * Amount of bids the LOOKAHEAD tactic chooses from
+	 */
+	private static final int lookaheadCandidates = 64;
+
+	/**
+	 * Maximum time the LOOKAHEAD tactic may take per round
+	 */
+	private static final long maxLookaheadNanos = 50000000L;
+
+	/**
+	 * Width of the own utility bands used to look up bids
+	 */
+	private static final double utilityBandWidth = 0.01;
+
 	/**
 	 * Based on a specific tactic and the internal parameters, this will give an
 	 * action to perform.
@@ -239,42 +501,38 @@ public class Group11 extends AbstractNegotiationParty {
 		switch (t) {
 		case RANDOM:
 			// We don't want to bid under our reservation value
-			List<BidDetails> randomBids = possibleBids
-					.getBidsinRange(new Range(getUtilitySpace()
-							.getReservationValue(), 1));
-			if (randomBids.size() == 0) {
+			BidDetails randomBid = bidIndex.getRandomBidInRange(
+					getUtilitySpace().getReservationValue(), 1, rand);
+			if (randomBid == null) {
 				return getActionForTactic(Tactics.GIVEIN);
 			} else {
-				return bid(randomBids.get(
-						new Random().nextInt(randomBids.size())).getBid());
+				return bid(randomBid.getBid());
 			}
 		case BESTNASH:
 			// In the assumption that our opponent does not do this as well,
 			// else this will keep on giving the same bid
 			return bid(nashBids.get(nashBids.size() - 1).getBid());
 		case NOSTALGIAN:
-			return bid(allBids.getBestBidDetails().getBid());
+			return bid(bestBid.get(historyVersion).getBid());
 		case ASOCIAL:
-			return bid(possibleBids.getMaxBidPossible().getBid());
+			// The outcome space never changes
+			return bid(maxBid.get(0).getBid());
 		case HARDTOGET:
-			return getOfferFromPreviousUtil(0.99);
+			return getOfferFromPreviousUtil(config.getHardToGetFactor());
 		case EDGEPUSHER:
 			// do a new bid that is a little better then last
 			Bid lastBid = allBids.getLastBid();
-			double lastUtil = getUtility(lastBid);
-			List<BidDetails> allBetterBids = possibleBids
-					.getBidsinRange(new Range(lastUtil, 1));
-			// Get first that is better, since i don't know how getBidsInRange
-			// is
-			// sorted. Also I want to avoid picking the lastBid;
-			for (BidDetails bd : allBetterBids) {
-				if (bd.getMyUndiscountedUtil() > lastUtil)
-					return bid(bd.getBid());
-			}
+			double lastUtil = getOwnUtility(lastBid);
+			// Like the first deliverable, offer the best bid of all when
+			// there is any bid better than the last one
+			BidDetails betterBid = maxBid.get(0);
+			if (betterBid != null
+					&& betterBid.getMyUndiscountedUtil() > lastUtil)
+				return bid(betterBid.getBid());
 			// No better bid to find, accept as well
 			return new Accept();
 		case GIVEIN:
-			if (getTime() > 0.95)
+			if (getTime() > config.getAcceptAnyTime())
 				return new Accept();
 			else {
 				// double currentTime = getTime();
@@ -282,8 +540,31 @@ public class Group11 extends AbstractNegotiationParty {
 				// (-1.9531 * Math.pow(currentTime, 2))
 				// + (2.2251 * currentTime) + 0.3626);
 				// discount = 1.3 - (0.6 * currentTime);
-				return getOfferFromPreviousUtil(0.975);
+				return getOfferFromPreviousUtil(config.getGiveInFactor());
+			}
+		case NEARBY:
+			// Opponents that modify the previous bid are most likely to
+			// accept a bid close to what they just offered
+			Bid lastOffer = getLastOfferOfModifyingOpponent();
+			if (nearestBids != null && lastOffer != null) {
+				List<BidDetails> nearest = nearestBids.getNearest(lastOffer,
+						getUtilitySpace().getReservationValue(), 1);
+				if (!nearest.isEmpty())
+					return bid(nearest.get(0).getBid());
 			}
+			return getActionForTactic(Tactics.EDGEPUSHER);
+		case LOOKAHEAD:
+			BidDetails bestOffer = lookahead.getBestOffer(
+					getLookaheadCandidates(),
+					new ArrayList<OpponentUtilityModel>(opponents.values()),
+					getTime(), getRoundLength(), getUtilitySpace()
+							.getReservationValue(),
+					config.getStartReservationUtility()
+							- config.getGiveInReservationDrop(),
+					getLookaheadBudget());
+			if (bestOffer == null)
+				return getActionForTactic(Tactics.BESTNASH);
+			return bid(bestOffer.getBid());
 		case THEFINGER:
 			return new EndNegotiation();
 		default:
@@ -293,6 +574,79 @@ public class Group11 extends AbstractNegotiationParty {
 		return getActionForTactic(Tactics.ASOCIAL);
 	}
 
+	/**
+	 * @return the last offer of an opponent that most likely modifies the
+	 *         previous bid, or null if there is none
+	 */
+	private Bid getLastOfferOfModifyingOpponent() {
+		for (OpponentUtilityModel m : opponents.values())
+			if (m.getLastOffer() != null
+					&& m.getMostLikelyStrategy() == BidModificationStrategy.MODIFY_PREVIOUS)
+				return m.getLastOffer();
+		return null;
+	}
+
+	/**
+	 * Get the bids the LOOKAHEAD tactic chooses from: the best Nash bids and
+	 * random bids above the reservation value
+	 * 
+	 * @return at most lookaheadCandidates bids with their own utility
+	 */
+	private List<BidDetails> getLookaheadCandidates() {
+		double minimum = getUtilitySpace().getReservationValue();
+		List<BidDetails> candidates = new ArrayList<BidDetails>();
+		HashSet<Bid> seen = new HashSet<Bid>();
+
+		for (int i = nashBids.size() - 1; i >= 0
+				&& candidates.size() < lookaheadCandidates / 2; i--) {
+			Bid b = nashBids.get(i).getBid();
+			double utility = getOwnUtility(b);
+			if (utility >= minimum && seen.add(b))
+				candidates.add(new BidDetails(b, utility));
+		}
+		for (int i = 0; i < lookaheadCandidates
+				&& candidates.size() < lookaheadCandidates; i++) {
+			BidDetails bd = bidIndex.getRandomBidInRange(minimum, 1, rand);
+			if (bd != null && seen.add(bd.getBid()))
+				candidates.add(bd);
+		}
+		return candidates;
+	}
+
+	/**
+	 * @return the normalized time per round
+	 */
+	private double getRoundLength() {
+		if (this.deadlines != null) {
+			Object d = this.deadlines.get(DeadlineType.ROUND);
+
+			if (d != null && (int) d != 0)
+				return 1.0 / (int) d;
+		}
+		return getTime() / Math.max(1, round);
+	}
+
+	/**
+	 * @return the time the LOOKAHEAD tactic may take this round, a part of
+	 *         the time per round that is left on the timeline. Without a time
+	 *         deadline the timeline only counts rounds, so the mean time per
+	 *         round so far is used instead.
+	 */
+	private long getLookaheadBudget() {
+		double timePerRound;
+		if (deadlines != null && deadlines.containsKey(DeadlineType.TIME)) {
+			double remainingRounds = Math.max(1, (1 - getTime())
+					/ getRoundLength());
+			timePerRound = (timeline.getTotalTime() - timeline
+					.getCurrentTime()) * 1e9 / remainingRounds;
+		} else {
+			timePerRound = (System.nanoTime() - sessionStart)
+					/ Math.max(1, round);
+		}
+		return Math.min(maxLookaheadNanos,
+				(long) (timePerRound * config.getLookaheadBudgetFraction()));
+	}
+
 	/**
 	 * Get an offer with discount times the utility of your last utility
 	 * 
@@ -301,7 +655,7 @@ public class Group11 extends AbstractNegotiationParty {
 	 * @return
 	 */
 	private Offer getOfferFromPreviousUtil(double discount) {
-		BidDetails bid = possibleBids.getBidNearUtility(discount * lastUtility);
+		BidDetails bid = bidIndex.getBidNearUtility(discount * lastUtility);
 		return bid(bid.getBid());
 	}
 
@@ -334,28 +688,39 @@ public class Group11 extends AbstractNegotiationParty {
 	public void receiveMessage(Object sender, Action action) {
 		super.receiveMessage(sender, action);
 
+		if (recorder != null) {
+			recorder.recordReceiveMessage(getTime(), sender, action);
+			if (action instanceof EndNegotiation)
+				recorder.close();
+		}
+
 		// Here you can listen to other parties' messages
 
+		if (config.isBatchMessages() && !(action instanceof Inform)) {
+			pendingSenders.add(sender);
+			pendingActions.add(action);
+			return;
+		}
+
 		try {
-			OpponentUtilityModel opponent = opponents.get(sender);
-			if (opponent == null) {
-				opponent = new OpponentUtilityModel(getUtilitySpace()
-						.getDomain());
-				opponents.put(sender, opponent);
-			}
+			OpponentUtilityModel opponent = getOpponentModel(sender);
 			Bid prevousBid = allBids.getLastBid();
 
 			// Update opponent specific history
 			if (action instanceof Offer) {
 				// Update global history
 				Bid bid = Action.getBidFromAction(action);
-				BidDetails details = new BidDetails(bid, getUtility(bid));
+				BidDetails details = new BidDetails(bid, getOwnUtility(bid));
 				allBids.add(details);
+				historyVersion++;
 
+				opponentVersion++;
 				opponent.addOffer(prevousBid, bid);
+				addToPopulation(sender, bid);
 
 				lastAcceptCount = 0;
 			} else if (action instanceof Accept) {
+				opponentVersion++;
 				opponent.addAccept(prevousBid);
 
 				lastAcceptCount++;
@@ -374,43 +739,242 @@ public class Group11 extends AbstractNegotiationParty {
 				System.out.println("WARNING :: UNKNOWN ACTION :: "
 						+ action.getClass().getCanonicalName());
 			}
-		} catch (InvalidDomainException | InvalidBidException e) {
+		} catch (InvalidBidException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Add the messages received since our last action to the opponent models
+	 * and the history in one pass: every model recomputes its weights once,
+	 * and the history and model versions change once.
+	 */
+	private void processPendingMessages() {
+		if (pendingActions.isEmpty())
+			return;
+
+		List<OpponentUtilityModel> updated = new ArrayList<OpponentUtilityModel>();
+		List<BidDetails> offers = new ArrayList<BidDetails>();
+		Bid previousBid = allBids.getLastBid();
+		for (int i = 0; i < pendingActions.size(); i++) {
+			Action action = pendingActions.get(i);
+			OpponentUtilityModel opponent = getOpponentModel(pendingSenders
+					.get(i));
+			if (!updated.contains(opponent)) {
+				opponent.beginBatch();
+				updated.add(opponent);
+			}
+
+			try {
+				if (action instanceof Offer) {
+					Bid bid = Action.getBidFromAction(action);
+					offers.add(new BidDetails(bid, getOwnUtility(bid)));
+					opponent.addOffer(previousBid, bid);
+					addToPopulation(pendingSenders.get(i), bid);
+					previousBid = bid;
+					lastAcceptCount = 0;
+				} else if (action instanceof Accept) {
+					opponent.addAccept(previousBid);
+					lastAcceptCount++;
+				} else {
+					System.out.println("WARNING :: UNKNOWN ACTION :: "
+							+ action.getClass().getCanonicalName());
+				}
+			} catch (InvalidBidException e) {
+				e.printStackTrace();
+			}
+		}
+		pendingSenders.clear();
+		pendingActions.clear();
+
+		for (OpponentUtilityModel opponent : updated)
+			opponent.endBatch();
+		opponentVersion++;
+		if (!offers.isEmpty()) {
+			for (BidDetails details : offers)
+				allBids.add(details);
+			historyVersion++;
+		}
+	}
+
+	/**
+	 * Count an offer in the population of its sender, if it has one
+	 */
+	private void addToPopulation(Object sender, Bid bid) {
+		OpponentPopulation population = populations.get(sender);
+		if (population != null)
+			population.addOffer(bid);
+	}
+
+	/**
+	 * @return the model of the sender, which is created when it is new
+	 */
+	private OpponentUtilityModel getOpponentModel(Object sender) {
+		OpponentUtilityModel opponent = opponents.get(sender);
+		if (opponent == null) {
+			opponent = createOpponentModel();
+			opponents.put(sender, opponent);
+			boolean loaded = modelStore != null
+					&& modelStore.load(getUtilitySpace().getDomain().getName(),
+							OpponentModelStore.getOpponentKey(sender),
+							opponent,
+							config.getNumberOfRoundsForOpponentModel());
+			if (OpponentPopulation.isEnabled()) {
+				OpponentPopulation population = OpponentPopulation.get(
+						getUtilitySpace().getDomain(),
+						OpponentModelStore.getOpponentKey(sender));
+				if (population != null) {
+					// A stored model already holds the prior observations
+					if (!loaded && OpponentPopulation.supports(opponent))
+						population.warmStart(opponent,
+								config.getNumberOfRoundsForOpponentModel());
+					populations.put(sender, population);
+				}
+			}
+			if (encoder != null)
+				opponentUtilities.put(opponent, new UtilityCache((int) Math
+						.min(opponentUtilityCacheSize, encoder.getSize() * 2)));
+			opponentVersion++;
+		}
+		return opponent;
+	}
+
+	/**
+	 * @return a new model of an opponent, which is the Bayesian model when the
+	 *         config has particles for it
+	 */
+	private OpponentUtilityModel createOpponentModel() {
+		Domain domain = getUtilitySpace().getDomain();
+		if (config.getOpponentModelParticles() > 0
+				&& ParticleOpponentModel.supports(domain))
+			return new ParticleOpponentModel(domain,
+					config.getOpponentModelParticles(), rand.nextLong());
+		return OpponentUtilityModel.create(domain,
+				config.getOpponentModelDecay());
+	}
+
 	/**
 	 * Method to set up some of the internal parameters.
 	 * 
 	 * Creates from the list of possible bids a list of bids sorted on Nash
-	 * product, determined by the opponent models available.
+	 * product, determined by the opponent models available. Only the FULL tier
+	 * keeps all bids; the other tiers keep the best lookaheadCandidates bids,
+	 * and the LAZY tier only scores a sample of random bids.
+	 * 
+	 * @return the bids sorted on increasing Nash product
 	 */
-	private void sortOutcomeSpaceOnNashProduct() {
+	private ArrayList<BidDetailsWithNash> sortOutcomeSpaceOnNashProduct() {
 		ArrayList<OpponentUtilityModel> opponentModels = new ArrayList<OpponentUtilityModel>();
 		for (Entry<Object, OpponentUtilityModel> e : opponents.entrySet()) {
 			opponentModels.add(e.getValue());
 		}
 
-		List<BidDetails> bids = possibleBids.getAllOutcomes();
+		List<BidDetails> bids = getNashCandidates();
 		ArrayList<BidDetailsWithNash> nashes = new ArrayList<BidDetailsWithNash>();
+		PriorityQueue<BidDetailsWithNash> best = engineTier == EngineTier.FULL ? null
+				: new PriorityQueue<BidDetailsWithNash>(lookaheadCandidates + 1,
+						ON_NASH_PRODUCT);
 
-		for (BidDetails bd : bids) {
-			nashes.add(new BidDetailsWithNash(bd.getBid(),
-					getNashUtilityProduct(bd.getBid(), opponentModels)));
+		if (encoder != null && outcomeCodes == null && possibleBids != null) {
+			outcomeCodes = new long[bids.size()];
+			for (int i = 0; i < outcomeCodes.length; i++)
+				outcomeCodes[i] = encoder.encode(bids.get(i).getBid());
 		}
 
-		Collections.sort(nashes, new Comparator<BidDetailsWithNash>() {
-			@Override
-			public int compare(BidDetailsWithNash lbdwn,
-					BidDetailsWithNash rbdwn) {
-				// Big value (1000000000) is because else the values would be so
-				// small that Java would throw a 'MisuseOfContractException'
-				return (int) (2000000000 * (lbdwn.getEstimatedNashValue() - rbdwn
-						.getEstimatedNashValue()));
+		UtilityEvaluator[] snapshots = getOpponentSnapshots(opponentModels);
+		for (int i = 0; i < bids.size(); i++) {
+			BidDetails bd = bids.get(i);
+			long code = outcomeCodes != null ? outcomeCodes[i]
+					: encoder != null ? encoder.encode(bd.getBid()) : -1;
+			double nash = snapshots != null && code >= 0 ? getNashUtilityProduct(
+					code, bd.getMyUndiscountedUtil(), snapshots)
+					: getNashUtilityProduct(bd.getBid(), code,
+							bd.getMyUndiscountedUtil(), opponentModels);
+			BidDetailsWithNash bdwn = new BidDetailsWithNash(bd.getBid(), nash);
+			if (best == null) {
+				nashes.add(bdwn);
+			} else {
+				best.add(bdwn);
+				if (best.size() > lookaheadCandidates)
+					best.poll();
 			}
-		});
+		}
+
+		if (best != null)
+			nashes.addAll(best);
+		Collections.sort(nashes, ON_NASH_PRODUCT);
+
+		return nashes;
+	}
+
+	private static final Comparator<BidDetailsWithNash> ON_NASH_PRODUCT = new Comparator<BidDetailsWithNash>() {
+		@Override
+		public int compare(BidDetailsWithNash lbdwn, BidDetailsWithNash rbdwn) {
+			// Big value (1000000000) is because else the values would be so
+			// small that Java would throw a 'MisuseOfContractException'
+			return (int) (2000000000 * (lbdwn.getEstimatedNashValue() - rbdwn
+					.getEstimatedNashValue()));
+		}
+	};
+
+	/**
+	 * @return all bids, or a sample of random bids in the LAZY tier, with
+	 *         their own utility
+	 */
+	private List<BidDetails> getNashCandidates() {
+		if (possibleBids != null)
+			return possibleBids.getAllOutcomes();
 
-		nashBids = nashes;
+		List<BidDetails> result = new ArrayList<BidDetails>(lazyNashSamples);
+		for (int i = 0; i < lazyNashSamples; i++) {
+			Bid b = getUtilitySpace().getDomain().getRandomBid(rand);
+			result.add(new BidDetails(b, getOwnUtility(b)));
+		}
+		return result;
+	}
+
+	/**
+	 * Take a snapshot of every opponent model as an evaluator of encoded bids
+	 * 
+	 * @param opponentModels
+	 * @return an evaluator per model, or null if not all models can be
+	 *         evaluated this way
+	 */
+	private UtilityEvaluator[] getOpponentSnapshots(
+			ArrayList<OpponentUtilityModel> opponentModels) {
+		if (encoder == null)
+			return null;
+
+		UtilityEvaluator[] result = new UtilityEvaluator[opponentModels.size()];
+		for (int i = 0; i < result.length; i++) {
+			double[][] evaluations = opponentModels.get(i)
+					.getWeightedEvaluations(encoder);
+			if (evaluations == null)
+				return null;
+			result[i] = UtilityEvaluator.create(encoder.getCardinalities(),
+					evaluations);
+		}
+		return result;
+	}
+
+	/**
+	 * Determine the Nash product for an encoded bid from snapshots of the
+	 * opponent models
+	 * 
+	 * @param code
+	 * @param ownUtility
+	 * @param snapshots
+	 * @return Nash product
+	 */
+	private double getNashUtilityProduct(long code, double ownUtility,
+			UtilityEvaluator[] snapshots) {
+		double res = ownUtility;
+		for (UtilityEvaluator e : snapshots) {
+			double util = e.getUtility(code);
+			if (!Double.isNaN(util))
+				res *= util;
+		}
+		return res;
 	}
 
 	/**
@@ -419,24 +983,75 @@ public class Group11 extends AbstractNegotiationParty {
 	 * 
 	 * @param b
 	 *            Bid to evaluate
+	 * @param code
+	 *            code of the bid, or -1 if it is not encoded
+	 * @param ownUtility
+	 *            our own utility for the bid
 	 * @param opponentModels
 	 *            list of opponents
 	 * @return Nash product
 	 */
-	private double getNashUtilityProduct(Bid b,
+	private double getNashUtilityProduct(Bid b, long code, double ownUtility,
 			ArrayList<OpponentUtilityModel> opponentModels) {
 
-		double res = getUtility(b);
+		double res = ownUtility;
 		for (OpponentUtilityModel m : opponentModels) {
-			try {
-				double util = m.getUtility(b);
-				if (!Double.isNaN(util))
-					res *= util;
-			} catch (InvalidBidException e) {
-				e.printStackTrace();
-			}
+			double util = getOpponentUtility(m, b, code);
+			if (!Double.isNaN(util))
+				res *= util;
 		}
 
 		return res;
 	}
+
+	/**
+	 * Get our own utility for a bid, using the utility table or the cache when
+	 * possible
+	 * 
+	 * @param b
+	 * @return our undiscounted utility
+	 */
+	private double getOwnUtility(Bid b) {
+		if (encoder == null)
+			return getUtility(b);
+
+		long code = encoder.encode(b);
+		if (code < 0)
+			return getUtility(b);
+		if (ownTable != null)
+			return ownTable.getUtility(code);
+
+		// Our own utilities never change, so they all share version 0
+		double utility = ownUtilities.get(code, 0);
+		if (Double.isNaN(utility)) {
+			utility = getUtility(b);
+			ownUtilities.put(code, 0, utility);
+		}
+		return utility;
+	}
+
+	/**
+	 * Get the modeled utility of an opponent for a bid, using the cache of
+	 * that opponent when possible. Cached utilities of an older version of the
+	 * model are ignored.
+	 * 
+	 * @param m
+	 *            the opponent model
+	 * @param b
+	 * @param code
+	 *            code of the bid, or -1 if it is not encoded
+	 * @return the modeled utility
+	 */
+	private double getOpponentUtility(OpponentUtilityModel m, Bid b, long code) {
+		UtilityCache cache = opponentUtilities.get(m);
+		if (cache == null || code < 0)
+			return m.getUtility(b);
+
+		double utility = cache.get(code, m.getVersion());
+		if (Double.isNaN(utility)) {
+			utility = m.getUtility(b);
+			cache.put(code, m.getVersion(), utility);
+		}
+		return utility;
+	}
 }
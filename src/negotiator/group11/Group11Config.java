@@ -0,0 +1,278 @@
+package negotiator.group11;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The tuning constants of {@link Group11}.
+ *
+ * The defaults are the values of the adapted agent described in the second
+ * report. Parameters can also be read and written by name, which is used by
+ * the {@link ParameterSearch}.
+ */
+public class Group11Config {
+
+	/** The reservation utility at the start of the negotiation */
+	private double startReservationUtility = 0.95;
+	/** Time after which the reservation utility starts to decrease */
+	private double timeToStartGiveIn = 0.9;
+	/** How much the reservation utility has decreased at the deadline */
+	private double giveInReservationDrop = 0.4;
+	/** Multiplier of the reservation utility when our bid is accepted enough */
+	private double acceptedReservationMultiplier = 0.9;
+	/** Time after which we accept any offer */
+	private double acceptAnyTime = 0.95;
+	/** Multiplier of the previous utility in the HARDTOGET tactic */
+	private double hardToGetFactor = 0.99;
+	/** Multiplier of the previous utility in the GIVEIN tactic */
+	private double giveInFactor = 0.975;
+	/** The minimum required rounds needed to make an opponent model */
+	private int numberOfRoundsForOpponentModel = 50;
+	/** Rounds after which the opponent model is trusted even if unstable */
+	private int maxRoundsForOpponentModel = 100;
+	/** Mean change in issue weights below which a model is stable */
+	private double convergenceThreshold = 0.01;
+	/** Decay of the opponent model counts per offer; 1 never forgets */
+	private double opponentModelDecay = 1;
+	/** Part of the time per round spent on lookahead; 0 disables it */
+	private double lookaheadBudgetFraction = 0;
+	/** Part of the maximum heap the enumerated outcome space may take */
+	private double outcomeMemoryFraction = 0.25;
+	/** Maximum amount of bids that are all sorted on Nash product */
+	private int maxFullOutcomes = 250000;
+	/** Update the opponent models once per round instead of per message */
+	private boolean batchMessages = false;
+	/** Hypotheses of the Bayesian opponent model; 0 uses frequency counts */
+	private int opponentModelParticles = 0;
+
+	public Group11Config() {
+	}
+
+	public Group11Config(Group11Config other) {
+		for (Entry<String, Double> e : other.toMap().entrySet())
+			set(e.getKey(), e.getValue());
+	}
+
+	public double getStartReservationUtility() {
+		return startReservationUtility;
+	}
+
+	public Group11Config setStartReservationUtility(double value) {
+		this.startReservationUtility = value;
+		return this;
+	}
+
+	public double getTimeToStartGiveIn() {
+		return timeToStartGiveIn;
+	}
+
+	public Group11Config setTimeToStartGiveIn(double value) {
+		this.timeToStartGiveIn = value;
+		return this;
+	}
+
+	public double getGiveInReservationDrop() {
+		return giveInReservationDrop;
+	}
+
+	public Group11Config setGiveInReservationDrop(double value) {
+		this.giveInReservationDrop = value;
+		return this;
+	}
+
+	public double getAcceptedReservationMultiplier() {
+		return acceptedReservationMultiplier;
+	}
+
+	public Group11Config setAcceptedReservationMultiplier(double value) {
+		this.acceptedReservationMultiplier = value;
+		return this;
+	}
+
+	public double getAcceptAnyTime() {
+		return acceptAnyTime;
+	}
+
+	public Group11Config setAcceptAnyTime(double value) {
+		this.acceptAnyTime = value;
+		return this;
+	}
+
+	public double getHardToGetFactor() {
+		return hardToGetFactor;
+	}
+
+	public Group11Config setHardToGetFactor(double value) {
+		this.hardToGetFactor = value;
+		return this;
+	}
+
+	public double getGiveInFactor() {
+		return giveInFactor;
+	}
+
+	public Group11Config setGiveInFactor(double value) {
+		this.giveInFactor = value;
+		return this;
+	}
+
+	public int getNumberOfRoundsForOpponentModel() {
+		return numberOfRoundsForOpponentModel;
+	}
+
+	public Group11Config setNumberOfRoundsForOpponentModel(int value) {
+		this.numberOfRoundsForOpponentModel = value;
+		return this;
+	}
+
+	public int getMaxRoundsForOpponentModel() {
+		return maxRoundsForOpponentModel;
+	}
+
+	public Group11Config setMaxRoundsForOpponentModel(int value) {
+		this.maxRoundsForOpponentModel = value;
+		return this;
+	}
+
+	public double getConvergenceThreshold() {
+		return convergenceThreshold;
+	}
+
+	public Group11Config setConvergenceThreshold(double value) {
+		this.convergenceThreshold = value;
+		return this;
+	}
+
+	public double getOpponentModelDecay() {
+		return opponentModelDecay;
+	}
+
+	public Group11Config setOpponentModelDecay(double value) {
+		this.opponentModelDecay = value;
+		return this;
+	}
+
+	public double getLookaheadBudgetFraction() {
+		return lookaheadBudgetFraction;
+	}
+
+	public Group11Config setLookaheadBudgetFraction(double value) {
+		this.lookaheadBudgetFraction = value;
+		return this;
+	}
+
+	public double getOutcomeMemoryFraction() {
+		return outcomeMemoryFraction;
+	}
+
+	public Group11Config setOutcomeMemoryFraction(double value) {
+		this.outcomeMemoryFraction = value;
+		return this;
+	}
+
+	public int getMaxFullOutcomes() {
+		return maxFullOutcomes;
+	}
+
+	public Group11Config setMaxFullOutcomes(int value) {
+		this.maxFullOutcomes = value;
+		return this;
+	}
+
+	public boolean isBatchMessages() {
+		return batchMessages;
+	}
+
+	public Group11Config setBatchMessages(boolean value) {
+		this.batchMessages = value;
+		return this;
+	}
+
+	public int getOpponentModelParticles() {
+		return opponentModelParticles;
+	}
+
+	public Group11Config setOpponentModelParticles(int value) {
+		this.opponentModelParticles = value;
+		return this;
+	}
+
+	/**
+	 * Set a parameter by name
+	 *
+	 * @param name
+	 *            name of the parameter, as in {@link #toMap()}
+	 * @param value
+	 * @return this config
+	 */
+	public Group11Config set(String name, double value) {
+		switch (name) {
+		case "startReservationUtility":
+			return setStartReservationUtility(value);
+		case "timeToStartGiveIn":
+			return setTimeToStartGiveIn(value);
+		case "giveInReservationDrop":
+			return setGiveInReservationDrop(value);
+		case "acceptedReservationMultiplier":
+			return setAcceptedReservationMultiplier(value);
+		case "acceptAnyTime":
+			return setAcceptAnyTime(value);
+		case "hardToGetFactor":
+			return setHardToGetFactor(value);
+		case "giveInFactor":
+			return setGiveInFactor(value);
+		case "numberOfRoundsForOpponentModel":
+			return setNumberOfRoundsForOpponentModel((int) Math.round(value));
+		case "maxRoundsForOpponentModel":
+			return setMaxRoundsForOpponentModel((int) Math.round(value));
+		case "convergenceThreshold":
+			return setConvergenceThreshold(value);
+		case "opponentModelDecay":
+			return setOpponentModelDecay(value);
+		case "lookaheadBudgetFraction":
+			return setLookaheadBudgetFraction(value);
+		case "outcomeMemoryFraction":
+			return setOutcomeMemoryFraction(value);
+		case "maxFullOutcomes":
+			return setMaxFullOutcomes((int) Math.round(value));
+		case "batchMessages":
+			return setBatchMessages(value != 0);
+		case "opponentModelParticles":
+			return setOpponentModelParticles((int) Math.round(value));
+		default:
+			throw new IllegalArgumentException("Unknown parameter " + name);
+		}
+	}
+
+	/**
+	 * @return all parameters by name
+	 */
+	public Map<String, Double> toMap() {
+		Map<String, Double> result = new LinkedHashMap<String, Double>();
+		result.put("startReservationUtility", startReservationUtility);
+		result.put("timeToStartGiveIn", timeToStartGiveIn);
+		result.put("giveInReservationDrop", giveInReservationDrop);
+		result.put("acceptedReservationMultiplier",
+				acceptedReservationMultiplier);
+		result.put("acceptAnyTime", acceptAnyTime);
+		result.put("hardToGetFactor", hardToGetFactor);
+		result.put("giveInFactor", giveInFactor);
+		result.put("numberOfRoundsForOpponentModel",
+				(double) numberOfRoundsForOpponentModel);
+		result.put("maxRoundsForOpponentModel",
+				(double) maxRoundsForOpponentModel);
+		result.put("convergenceThreshold", convergenceThreshold);
+		result.put("opponentModelDecay", opponentModelDecay);
+		result.put("lookaheadBudgetFraction", lookaheadBudgetFraction);
+		result.put("outcomeMemoryFraction", outcomeMemoryFraction);
+		result.put("maxFullOutcomes", (double) maxFullOutcomes);
+		result.put("batchMessages", batchMessages ? 1.0 : 0.0);
+		result.put("opponentModelParticles", (double) opponentModelParticles);
+		return result;
+	}
+
+	public String toString() {
+		return toMap().toString();
+	}
+}
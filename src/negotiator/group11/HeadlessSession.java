@@ -0,0 +1,355 @@
+package negotiator.group11;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import negotiator.AgentID;
+import negotiator.Bid;
+import negotiator.DeadlineType;
+import negotiator.Domain;
+import negotiator.Timeline;
+import negotiator.actions.Accept;
+import negotiator.actions.Action;
+import negotiator.actions.EndNegotiation;
+import negotiator.actions.Inform;
+import negotiator.actions.Offer;
+import negotiator.parties.NegotiationParty;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Runs a single multilateral negotiation in-process, without the genius GUI
+ * and protocol layer.
+ *
+ * The parties take turns in a fixed order, following the stacked alternating
+ * offers protocol used in our tournaments: the first party has to make an
+ * offer, every next party either accepts the current offer or makes a counter
+ * offer. An agreement is reached when all other parties accepted the current
+ * offer. The negotiation ends without agreement at the round deadline or when
+ * a party leaves.
+ */
+public class HeadlessSession {
+
+	/**
+	 * Creates a party for a session, like genius does using the party
+	 * repository.
+	 */
+	public interface PartyFactory {
+		NegotiationParty create(UtilitySpace utilitySpace,
+				Map<DeadlineType, Object> deadlines, Timeline timeline,
+				long randomSeed);
+	}
+
+	/**
+	 * Factory for the current version of our own agent
+	 */
+	public static final PartyFactory GROUP11 = new PartyFactory() {
+		@Override
+		public NegotiationParty create(UtilitySpace utilitySpace,
+				Map<DeadlineType, Object> deadlines, Timeline timeline,
+				long randomSeed) {
+			return new Group11(utilitySpace, deadlines, timeline, randomSeed);
+		}
+	};
+
+	private final List<PartyFactory> factories;
+	private final List<UtilitySpace> utilitySpaces;
+	private final int roundDeadline;
+	private final long randomSeed;
+
+	/**
+	 * @param factories
+	 *            factory per party, in turn order
+	 * @param utilitySpaces
+	 *            utility space per party, in turn order. Each party needs its
+	 *            own instance, as parties may modify their utility space.
+	 * @param roundDeadline
+	 *            the amount of rounds before the negotiation ends
+	 * @param randomSeed
+	 */
+	public HeadlessSession(List<PartyFactory> factories,
+			List<UtilitySpace> utilitySpaces, int roundDeadline, long randomSeed) {
+		if (factories.size() != utilitySpaces.size())
+			throw new IllegalArgumentException(
+					"Every party needs exactly one utility space");
+		this.factories = factories;
+		this.utilitySpaces = utilitySpaces;
+		this.roundDeadline = roundDeadline;
+		this.randomSeed = randomSeed;
+	}
+
+	/**
+	 * Outcome of a session
+	 */
+	public static class SessionResult {
+		/** The agreed bid, or null when there is no agreement */
+		public Bid agreement;
+		/** Undiscounted utility of the agreement per party, 0 without one */
+		public double[] utilities;
+		public int rounds;
+		public long durationNanos;
+		/** Sum of the chooseAction latencies per party, in nanoseconds */
+		public long[] totalLatencies;
+		/** Highest chooseAction latency per party, in nanoseconds */
+		public long[] maxLatencies;
+		/** Amount of offers accepted per party */
+		public int[] approvals;
+		/** Index of the party that crashed the session, or -1 */
+		public int failedParty = -1;
+		/** Engine tier per party, or null for parties other than Group11 */
+		public EngineTier[] engineTiers;
+		/** Class name of the agent of every party */
+		public String[] agents;
+		/** Distance of the outcome to the Pareto frontier, NaN if unknown */
+		public double paretoDistance = Double.NaN;
+		/** Distance of the outcome to the Nash solution, NaN if unknown */
+		public double nashDistance = Double.NaN;
+
+		/**
+		 * @return the sum of the utilities of all parties
+		 */
+		public double getSocialWelfare() {
+			double sum = 0;
+			for (double u : utilities)
+				sum += u;
+			return sum;
+		}
+
+		/**
+		 * Measure the outcome against the Pareto frontier of the session
+		 */
+		public void measure(ParetoFrontier frontier) {
+			paretoDistance = frontier.getParetoDistance(utilities);
+			nashDistance = frontier.getNashDistance(utilities);
+		}
+
+		public boolean hasAgreement() {
+			return agreement != null;
+		}
+
+		/**
+		 * Write the result, for example to send it to another process
+		 *
+		 * @param out
+		 * @param domain
+		 *            the domain of the session, to encode the agreement
+		 * @throws IOException
+		 */
+		public void writeTo(DataOutputStream out, Domain domain)
+				throws IOException {
+			out.writeLong(agreement == null ? -1 : new BidEncoder(domain)
+					.encode(agreement));
+			out.writeInt(rounds);
+			out.writeLong(durationNanos);
+			out.writeInt(failedParty);
+			out.writeDouble(paretoDistance);
+			out.writeDouble(nashDistance);
+			out.writeInt(utilities.length);
+			for (int i = 0; i < utilities.length; i++) {
+				out.writeDouble(utilities[i]);
+				out.writeLong(totalLatencies[i]);
+				out.writeLong(maxLatencies[i]);
+				out.writeInt(approvals[i]);
+				out.writeByte(engineTiers[i] == null ? -1 : engineTiers[i]
+						.ordinal());
+				out.writeUTF(agents[i]);
+			}
+		}
+
+		/**
+		 * Read a result written by {@link #writeTo(DataOutputStream, Domain)}
+		 *
+		 * @param in
+		 * @param domain
+		 *            the domain of the session, to decode the agreement
+		 * @return the result
+		 * @throws IOException
+		 */
+		public static SessionResult readFrom(DataInputStream in, Domain domain)
+				throws IOException {
+			SessionResult r = new SessionResult();
+			long agreement = in.readLong();
+			if (agreement >= 0)
+				r.agreement = new BidEncoder(domain).decode(agreement);
+			r.rounds = in.readInt();
+			r.durationNanos = in.readLong();
+			r.failedParty = in.readInt();
+			r.paretoDistance = in.readDouble();
+			r.nashDistance = in.readDouble();
+			int n = in.readInt();
+			r.utilities = new double[n];
+			r.totalLatencies = new long[n];
+			r.maxLatencies = new long[n];
+			r.approvals = new int[n];
+			r.engineTiers = new EngineTier[n];
+			r.agents = new String[n];
+			for (int i = 0; i < n; i++) {
+				r.utilities[i] = in.readDouble();
+				r.totalLatencies[i] = in.readLong();
+				r.maxLatencies[i] = in.readLong();
+				r.approvals[i] = in.readInt();
+				int tier = in.readByte();
+				r.engineTiers[i] = tier < 0 ? null : EngineTier.values()[tier];
+				r.agents[i] = in.readUTF();
+			}
+			return r;
+		}
+	}
+
+	/**
+	 * Run the session
+	 *
+	 * @return the outcome of the session
+	 */
+	@SuppressWarnings("rawtypes")
+	public SessionResult run() {
+		int n = factories.size();
+		long start = System.nanoTime();
+
+		RoundTimeline timeline = new RoundTimeline(roundDeadline);
+		Map<DeadlineType, Object> deadlines = new HashMap<DeadlineType, Object>();
+		deadlines.put(DeadlineType.ROUND, roundDeadline);
+
+		NegotiationParty[] parties = new NegotiationParty[n];
+		AgentID[] ids = new AgentID[n];
+		for (int i = 0; i < n; i++) {
+			parties[i] = factories.get(i).create(utilitySpaces.get(i),
+					deadlines, timeline, randomSeed + i);
+			ids[i] = new AgentID("Party " + (i + 1));
+			parties[i].setPartyId(ids[i]);
+		}
+
+		SessionResult result = new SessionResult();
+		result.utilities = new double[n];
+		result.totalLatencies = new long[n];
+		result.maxLatencies = new long[n];
+		result.approvals = new int[n];
+		result.engineTiers = new EngineTier[n];
+		result.agents = new String[n];
+		for (int i = 0; i < n; i++) {
+			if (parties[i] instanceof Group11)
+				result.engineTiers[i] = ((Group11) parties[i]).getEngineTier();
+			result.agents[i] = parties[i].getClass().getName();
+		}
+
+		for (int i = 0; i < n; i++)
+			parties[i].receiveMessage(ids[i], new Inform().setName(
+					"NumberOfAgents").setValue(n));
+
+		List<Class> firstActions = Arrays.<Class> asList(Offer.class);
+		List<Class> allActions = Arrays.<Class> asList(Accept.class,
+				Offer.class, EndNegotiation.class);
+
+		Bid currentOffer = null;
+		int accepts = 0;
+
+		negotiation: for (int round = 0; round < roundDeadline; round++) {
+			timeline.round = round;
+			result.rounds = round + 1;
+
+			for (int i = 0; i < n; i++) {
+				Action action;
+				long actionStart = System.nanoTime();
+				try {
+					action = parties[i].chooseAction(currentOffer == null ? firstActions
+							: allActions);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+					result.failedParty = i;
+					break negotiation;
+				}
+				long latency = System.nanoTime() - actionStart;
+				result.totalLatencies[i] += latency;
+				result.maxLatencies[i] = Math.max(result.maxLatencies[i],
+						latency);
+
+				if (action instanceof Offer) {
+					currentOffer = ((Offer) action).getBid();
+					accepts = 0;
+				} else if (action instanceof Accept && currentOffer != null) {
+					accepts++;
+					result.approvals[i]++;
+				} else {
+					// Leaving, or an action that is not allowed
+					break negotiation;
+				}
+
+				for (int j = 0; j < n; j++)
+					if (j != i)
+						parties[j].receiveMessage(ids[i], action);
+
+				if (accepts == n - 1) {
+					result.agreement = currentOffer;
+					break negotiation;
+				}
+			}
+		}
+
+		if (result.agreement != null)
+			for (int i = 0; i < n; i++)
+				result.utilities[i] = getUtility(utilitySpaces.get(i),
+						result.agreement);
+
+		result.durationNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	private static double getUtility(UtilitySpace utilitySpace, Bid bid) {
+		try {
+			return utilitySpace.getUtility(bid);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	/**
+	 * Convenience method to create a session where every party is created by
+	 * the same factory
+	 */
+	public static HeadlessSession withSameParties(PartyFactory factory,
+			List<UtilitySpace> utilitySpaces, int roundDeadline, long randomSeed) {
+		List<PartyFactory> factories = new ArrayList<PartyFactory>();
+		for (int i = 0; i < utilitySpaces.size(); i++)
+			factories.add(factory);
+		return new HeadlessSession(factories, utilitySpaces, roundDeadline,
+				randomSeed);
+	}
+
+	/**
+	 * Timeline that counts the rounds of the session
+	 */
+	static class RoundTimeline extends Timeline {
+		private final int totalRounds;
+		private int round;
+
+		RoundTimeline(int totalRounds) {
+			this.totalRounds = totalRounds;
+		}
+
+		@Override
+		public double getTime() {
+			return (double) round / totalRounds;
+		}
+
+		@Override
+		public double getTotalTime() {
+			return totalRounds;
+		}
+
+		@Override
+		public double getCurrentTime() {
+			return round;
+		}
+
+		@Override
+		public void printTime() {
+			System.out.println("Round " + round + " of " + totalRounds);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package negotiator.group11;
+
+import java.util.List;
+import java.util.Random;
+
+import negotiator.Bid;
+import negotiator.Domain;
+import negotiator.bidding.BidDetails;
+import negotiator.issue.Issue;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Looks up bids on their own utility without enumerating the outcome space,
+ * for domains that are too large to keep in memory.
+ *
+ * Every lookup is a stochastic local search: starting from a random bid, the
+ * value of one random issue is replaced by a random other value whenever that
+ * brings the utility closer to what is asked for. The search restarts a few
+ * times from a new random bid and keeps the best bid found, so lookups are
+ * approximate but take a bounded amount of utility evaluations.
+ */
+public class LazyBidSearch extends OutcomeSearch {
+
+	/** Amount of random starting bids per lookup */
+	private static final int restarts = 8;
+	/** Amount of changed bids tried from every starting bid */
+	private static final int stepsPerRestart = 128;
+
+	private final UtilitySpace utilitySpace;
+	private final Domain domain;
+	private final int[] issueNumbers;
+	private final Random random;
+	private BidDetails maxBid;
+
+	/**
+	 * @param utilitySpace
+	 *            our utility space
+	 * @param random
+	 *            source of the random bids of all lookups
+	 */
+	public LazyBidSearch(UtilitySpace utilitySpace, Random random) {
+		this.utilitySpace = utilitySpace;
+		this.domain = utilitySpace.getDomain();
+		this.random = random;
+
+		List<Issue> issues = domain.getIssues();
+		issueNumbers = new int[issues.size()];
+		for (int i = 0; i < issueNumbers.length; i++)
+			issueNumbers[i] = issues.get(i).getNumber();
+	}
+
+	/**
+	 * Get our own utility of a bid. Can be overridden to use a faster
+	 * evaluation than the utility space.
+	 *
+	 * @param b
+	 * @return our undiscounted utility, or NaN if it can not be determined
+	 */
+	protected double getUtility(Bid b) {
+		try {
+			return utilitySpace.getUtility(b);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return Double.NaN;
+		}
+	}
+
+	@Override
+	public BidDetails getBidNearUtility(double utility) {
+		return search(utility, utility, random);
+	}
+
+	@Override
+	public BidDetails getRandomBidInRange(double lowerbound,
+			double upperbound, Random random) {
+		BidDetails bd = search(lowerbound, upperbound, random);
+		if (bd == null || bd.getMyUndiscountedUtil() < lowerbound
+				|| bd.getMyUndiscountedUtil() > upperbound)
+			return null;
+		return bd;
+	}
+
+	/**
+	 * Utilities are at most 1, so this searches the bids of utility 1. The
+	 * result is found once and then kept.
+	 */
+	@Override
+	public BidDetails getMaxBid() {
+		if (maxBid == null)
+			maxBid = search(1, 1, random);
+		return maxBid;
+	}
+
+	/**
+	 * Search a bid with a utility in [lowerbound, upperbound], as close to the
+	 * bounds as possible when there is none
+	 *
+	 * @param random
+	 * @return the best bid found, or null if no utility could be determined
+	 */
+	private BidDetails search(double lowerbound, double upperbound,
+			Random random) {
+		Bid best = null;
+		double bestUtility = Double.NaN;
+		double bestCost = Double.POSITIVE_INFINITY;
+
+		for (int r = 0; r < restarts && bestCost > 0; r++) {
+			Bid current = domain.getRandomBid(random);
+			double utility = getUtility(current);
+			double cost = getCost(utility, lowerbound, upperbound);
+
+			for (int s = 0; s < stepsPerRestart && cost > 0; s++) {
+				Bid next = changeRandomIssue(current, random);
+				double nextUtility = getUtility(next);
+				double nextCost = getCost(nextUtility, lowerbound, upperbound);
+				if (nextCost < cost) {
+					current = next;
+					utility = nextUtility;
+					cost = nextCost;
+				}
+			}
+
+			if (cost < bestCost) {
+				best = current;
+				bestUtility = utility;
+				bestCost = cost;
+			}
+		}
+		return best == null ? null : new BidDetails(best, bestUtility);
+	}
+
+	/**
+	 * @return how far a utility is from the range, 0 when it is inside
+	 */
+	private static double getCost(double utility, double lowerbound,
+			double upperbound) {
+		if (Double.isNaN(utility))
+			return Double.POSITIVE_INFINITY;
+		if (utility < lowerbound)
+			return lowerbound - utility;
+		if (utility > upperbound)
+			return utility - upperbound;
+		return 0;
+	}
+
+	/**
+	 * @return a copy of the bid with the value of one issue taken from a
+	 *         random bid
+	 */
+	private Bid changeRandomIssue(Bid b, Random random) {
+		int issue = issueNumbers[random.nextInt(issueNumbers.length)];
+		Bid result = new Bid(b);
+		result.setValue(issue,
+				domain.getRandomBid(random).getValues().get(issue));
+		return result;
+	}
+}
@@ -0,0 +1,36 @@
+package negotiator.group11;
+
+/**
+ * A value that is only computed again when the state it depends on changed.
+ *
+ * The state is identified by a version number, which the owner increments
+ * on every change of that state.
+ *
+ * @param <T>
+ *            the type of the value
+ */
+public abstract class Memoized<T> {
+
+	private boolean computed;
+	private int version;
+	private T value;
+
+	/**
+	 * @return the value for the current state
+	 */
+	protected abstract T compute();
+
+	/**
+	 * @param currentVersion
+	 *            the version of the state the value depends on
+	 * @return the value, computed again only if the version changed
+	 */
+	public T get(int currentVersion) {
+		if (!computed || version != currentVersion) {
+			value = compute();
+			version = currentVersion;
+			computed = true;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,268 @@
+package negotiator.group11;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import negotiator.Bid;
+import negotiator.bidding.BidDetails;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Chooses an offer by simulating the rest of the negotiation many times,
+ * using the opponent models to decide whether the opponents accept.
+ *
+ * Every opponent is assumed to accept a bid with a probability that rises
+ * with the modeled utility of the bid above its aspiration. The aspiration
+ * starts at the modeled utility of its last offer and is lowered linearly
+ * towards the deadline. After our first offer, the rollout continues with
+ * random offers of our own, of which the minimum utility is lowered linearly
+ * as well, until all opponents accept or the deadline passes.
+ *
+ * The rollouts of all candidates run in batches in a fork/join pool as long as
+ * the time budget allows another batch. Rollout k of every candidate uses the same random numbers,
+ * so the candidates are compared on the same simulated opponents.
+ */
+public class MonteCarloLookahead {
+
+	/** Fraction of its aspiration an opponent gives up until the deadline */
+	private static final double opponentConcession = 0.2;
+	/** Spread in utility of the acceptance probability of an opponent */
+	private static final double acceptanceTemperature = 0.05;
+	/** Maximum amount of candidates evaluated in a single task */
+	private static final int candidatesPerTask = 4;
+	/** Amount of rollouts per candidate between checks of the time budget */
+	private static final int rolloutsPerBatch = 16;
+
+	private static final ForkJoinPool pool = new ForkJoinPool();
+
+	private final double discountFactor;
+	private final double disagreementUtility;
+	private final long seed;
+	/** Duration of the last batch of rollouts, 0 before the first one */
+	private long estimatedBatchNanos;
+
+	/**
+	 * @param discountFactor
+	 *            the discount factor of our utility space
+	 * @param disagreementUtility
+	 *            our utility when there is no agreement
+	 * @param seed
+	 */
+	public MonteCarloLookahead(double discountFactor,
+			double disagreementUtility, long seed) {
+		this.discountFactor = discountFactor;
+		this.disagreementUtility = disagreementUtility;
+		this.seed = seed;
+	}
+
+	/**
+	 * Find the candidate with the highest expected discounted utility
+	 *
+	 * @param candidates
+	 *            the bids that may be offered, with their own utility
+	 * @param opponents
+	 *            the models of all opponents
+	 * @param time
+	 *            the current normalized time
+	 * @param roundLength
+	 *            the normalized time per round
+	 * @param ownMinimum
+	 *            our current minimum utility of an offer
+	 * @param ownMinimumAtDeadline
+	 *            our minimum utility of an offer at the deadline
+	 * @param budgetNanos
+	 *            the time the rollouts may take
+	 * @return the best candidate, or null if there are none or the budget
+	 *         is too small for a single batch of rollouts
+	 */
+	public BidDetails getBestOffer(List<BidDetails> candidates,
+			List<OpponentUtilityModel> opponents, double time,
+			double roundLength, double ownMinimum, double ownMinimumAtDeadline,
+			long budgetNanos) {
+		if (candidates.isEmpty())
+			return null;
+
+		Rollouts r = new Rollouts(candidates, opponents, time, roundLength,
+				ownMinimum, ownMinimumAtDeadline);
+		long deadline = System.nanoTime() + budgetNanos;
+		long batchNanos = estimatedBatchNanos;
+		int rollouts = 0;
+		// A batch is only started when it is expected to finish in time
+		while (System.nanoTime() + batchNanos <= deadline) {
+			long batchStart = System.nanoTime();
+			// All candidates get the same rollouts, also when there are fewer
+			// cores than tasks
+			pool.invoke(r.new Task(0, r.bids.size(), rollouts));
+			rollouts += rolloutsPerBatch;
+			batchNanos = System.nanoTime() - batchStart;
+			estimatedBatchNanos = batchNanos;
+		}
+		if (rollouts == 0)
+			return null;
+
+		int best = 0;
+		for (int c = 1; c < r.bids.size(); c++)
+			if (r.getExpectedUtility(c) > r.getExpectedUtility(best))
+				best = c;
+		return r.bids.get(best);
+	}
+
+	/**
+	 * The state of a single lookahead. All utilities are computed up front,
+	 * so the rollouts only read arrays and can run on any thread.
+	 */
+	private class Rollouts {
+		/** The candidates, on decreasing own utility */
+		final List<BidDetails> bids;
+		final double[] own;
+		/** Modeled utility per opponent per candidate */
+		final double[][] opponent;
+		final double[] aspirations;
+		final double time;
+		final double roundLength;
+		final double ownMinimum;
+		final double ownMinimumAtDeadline;
+
+		final double[] sums;
+		final int[] counts;
+
+		Rollouts(List<BidDetails> candidates,
+				List<OpponentUtilityModel> opponents, double time,
+				double roundLength, double ownMinimum,
+				double ownMinimumAtDeadline) {
+			bids = new ArrayList<BidDetails>(candidates);
+			Collections.sort(bids, new Comparator<BidDetails>() {
+				@Override
+				public int compare(BidDetails l, BidDetails r) {
+					return Double.compare(r.getMyUndiscountedUtil(),
+							l.getMyUndiscountedUtil());
+				}
+			});
+
+			own = new double[bids.size()];
+			for (int c = 0; c < own.length; c++)
+				own[c] = bids.get(c).getMyUndiscountedUtil();
+
+			opponent = new double[opponents.size()][own.length];
+			aspirations = new double[opponents.size()];
+			for (int o = 0; o < opponents.size(); o++) {
+				OpponentUtilityModel m = opponents.get(o);
+				for (int c = 0; c < own.length; c++)
+					opponent[o][c] = getUtility(m, bids.get(c).getBid(), 0);
+				aspirations[o] = getUtility(m, m.getLastOffer(), 1);
+			}
+
+			this.time = time;
+			this.roundLength = Math.max(roundLength, 1e-6);
+			this.ownMinimum = ownMinimum;
+			this.ownMinimumAtDeadline = ownMinimumAtDeadline;
+			sums = new double[own.length];
+			counts = new int[own.length];
+		}
+
+		private double getUtility(OpponentUtilityModel m, Bid b,
+				double unknown) {
+			if (b == null)
+				return unknown;
+			double utility = m.getUtility(b);
+			return Double.isNaN(utility) ? unknown : utility;
+		}
+
+		double getExpectedUtility(int candidate) {
+			return counts[candidate] == 0 ? Double.NEGATIVE_INFINITY
+					: sums[candidate] / counts[candidate];
+		}
+
+		/**
+		 * Simulate the negotiation after offering a candidate
+		 *
+		 * @return our discounted utility of the outcome
+		 */
+		double rollout(int candidate, Random random) {
+			double t = time;
+			int offer = candidate;
+			while (t < 1) {
+				if (allAccept(offer, t, random))
+					return UtilitySpace.discount(own[offer], t, discountFactor);
+
+				t += roundLength;
+				double progress = (t - time) / (1 - time);
+				double minimum = ownMinimum - (ownMinimum - ownMinimumAtDeadline)
+						* progress;
+				offer = random.nextInt(Math.max(1, countAtLeast(minimum)));
+			}
+			return UtilitySpace.discount(disagreementUtility, 1, discountFactor);
+		}
+
+		private boolean allAccept(int offer, double t, Random random) {
+			double progress = time >= 1 ? 1 : (t - time) / (1 - time);
+			for (int o = 0; o < aspirations.length; o++) {
+				double aspiration = aspirations[o]
+						* (1 - opponentConcession * progress);
+				double p = 1 / (1 + Math.exp((aspiration - opponent[o][offer])
+						/ acceptanceTemperature));
+				if (random.nextDouble() >= p)
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return the amount of candidates with at least the given utility
+		 */
+		private int countAtLeast(double utility) {
+			int low = 0;
+			int high = own.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (own[middle] >= utility)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+
+		/**
+		 * Runs a batch of rollouts of a range of candidates, splitting the
+		 * range over several tasks when it is large
+		 */
+		class Task extends RecursiveAction {
+			private static final long serialVersionUID = 2947151383432069412L;
+
+			final int from;
+			final int to;
+			final int firstRollout;
+
+			Task(int from, int to, int firstRollout) {
+				this.from = from;
+				this.to = to;
+				this.firstRollout = firstRollout;
+			}
+
+			@Override
+			protected void compute() {
+				if (to - from > candidatesPerTask) {
+					int middle = (from + to) >>> 1;
+					invokeAll(new Task(from, middle, firstRollout), new Task(
+							middle, to, firstRollout));
+					return;
+				}
+
+				for (int k = firstRollout; k < firstRollout + rolloutsPerBatch; k++) {
+					for (int c = from; c < to; c++) {
+						// Same random numbers for rollout k of every candidate
+						sums[c] += rollout(c, new Random((seed + k)
+								* 0x9E3779B97F4A7C15L));
+						counts[c]++;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,305 @@
+package negotiator.group11;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import negotiator.Bid;
+import negotiator.bidding.BidDetails;
+
+/**
+ * Index on the outcome space to find the bids with at least a certain own
+ * utility that differ in the fewest issues from a given bid.
+ *
+ * The issues are split into blocks, and for every block the bids are hashed
+ * on their values of the issues in that block (multi-index hashing). A bid
+ * that differs from the query in d issues differs in at most d / blocks
+ * issues in one of the blocks, so searching the buckets of each block with an
+ * increasing amount of changed values finds the nearest bids without
+ * comparing the query to the whole outcome space.
+ *
+ * Bids are numbered on decreasing own utility, and every bucket is sorted on
+ * that number, so the bids above a utility threshold are a prefix of each
+ * bucket.
+ */
+public class NearestBidIndex {
+
+	/** Maximum amount of issues in a block */
+	private static final int issuesPerBlock = 2;
+
+	private final int numberOfIssues;
+	private final int[] cardinalities;
+	/** All bids, on decreasing own utility */
+	private final BidDetails[] bids;
+	private final double[] utilities;
+	/** Value indices of all bids, numberOfIssues per bid */
+	private final int[] values;
+	private final BidEncoder encoder;
+
+	/** First issue of every block, and the end of the last block */
+	private final int[] blockStart;
+	/** Multiplier of the value of every issue in the code of its block */
+	private final int[] multipliers;
+	/** The bids for every block code, per block */
+	private final List<HashMap<Integer, int[]>> buckets;
+
+	/** Bids that have been compared to the current query */
+	private final int[] visited;
+	private int query;
+
+	/**
+	 * @param outcomes
+	 *            all possible bids with their own utility
+	 * @param encoder
+	 *            encoder of the domain of the bids
+	 */
+	public NearestBidIndex(List<BidDetails> outcomes, BidEncoder encoder) {
+		this.encoder = encoder;
+		this.cardinalities = encoder.getCardinalities();
+		this.numberOfIssues = cardinalities.length;
+
+		List<BidDetails> sorted = new ArrayList<BidDetails>(outcomes);
+		Collections.sort(sorted, new Comparator<BidDetails>() {
+			@Override
+			public int compare(BidDetails l, BidDetails r) {
+				return Double.compare(r.getMyUndiscountedUtil(),
+						l.getMyUndiscountedUtil());
+			}
+		});
+
+		int size = sorted.size();
+		bids = sorted.toArray(new BidDetails[size]);
+		utilities = new double[size];
+		values = new int[size * numberOfIssues];
+		for (int id = 0; id < size; id++) {
+			utilities[id] = bids[id].getMyUndiscountedUtil();
+			int[] v = encoder.getValueIndices(bids[id].getBid());
+			if (v == null)
+				throw new IllegalArgumentException("Bid not in the domain: "
+						+ bids[id].getBid());
+			System.arraycopy(v, 0, values, id * numberOfIssues, numberOfIssues);
+		}
+		visited = new int[size];
+
+		int numberOfBlocks = Math.max(1, (numberOfIssues + issuesPerBlock - 1)
+				/ issuesPerBlock);
+		blockStart = new int[numberOfBlocks + 1];
+		multipliers = new int[numberOfIssues];
+		for (int b = 0; b < numberOfBlocks; b++) {
+			blockStart[b] = b * numberOfIssues / numberOfBlocks;
+			blockStart[b + 1] = (b + 1) * numberOfIssues / numberOfBlocks;
+			int multiplier = 1;
+			for (int i = blockStart[b]; i < blockStart[b + 1]; i++) {
+				multipliers[i] = multiplier;
+				multiplier *= cardinalities[i];
+			}
+		}
+
+		buckets = new ArrayList<HashMap<Integer, int[]>>();
+		for (int b = 0; b < numberOfBlocks; b++)
+			buckets.add(createBuckets(b));
+	}
+
+	/**
+	 * Group the bids on their code in a block. Ids are added in increasing
+	 * order, so every bucket is sorted.
+	 */
+	private HashMap<Integer, int[]> createBuckets(int block) {
+		HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		int[] codes = new int[bids.length];
+		for (int id = 0; id < bids.length; id++) {
+			codes[id] = getBlockCode(block, values, id * numberOfIssues);
+			Integer count = counts.get(codes[id]);
+			counts.put(codes[id], count == null ? 1 : count + 1);
+		}
+
+		HashMap<Integer, int[]> result = new HashMap<Integer, int[]>();
+		HashMap<Integer, Integer> filled = new HashMap<Integer, Integer>();
+		for (int id = 0; id < bids.length; id++) {
+			int[] bucket = result.get(codes[id]);
+			if (bucket == null) {
+				bucket = new int[counts.get(codes[id])];
+				result.put(codes[id], bucket);
+				filled.put(codes[id], 0);
+			}
+			int position = filled.get(codes[id]);
+			bucket[position] = id;
+			filled.put(codes[id], position + 1);
+		}
+		return result;
+	}
+
+	private int getBlockCode(int block, int[] v, int offset) {
+		int code = 0;
+		for (int i = blockStart[block]; i < blockStart[block + 1]; i++)
+			code += v[offset + i] * multipliers[i];
+		return code;
+	}
+
+	/**
+	 * Find the acceptable bids that differ in the fewest issues from a bid
+	 *
+	 * @param bid
+	 *            the bid to search near, usually the last offer of an opponent
+	 * @param minUtility
+	 *            the minimum own utility of the returned bids
+	 * @param k
+	 *            the maximum amount of bids to return
+	 * @return at most k bids with at least the minimum utility, on increasing
+	 *         distance and then on decreasing utility
+	 */
+	public List<BidDetails> getNearest(Bid bid, double minUtility, int k) {
+		List<BidDetails> result = new ArrayList<BidDetails>();
+		int[] q = encoder.getValueIndices(bid);
+		int cutoff = getCountAtLeast(minUtility);
+		if (q == null || cutoff == 0 || k <= 0)
+			return result;
+
+		query++;
+		Nearest nearest = new Nearest(k);
+		int numberOfBlocks = blockStart.length - 1;
+		for (int radius = 0; radius <= issuesPerBlock; radius++) {
+			if (getNeighbourCount(radius) > cutoff) {
+				// Probing costs more than comparing all acceptable bids
+				for (int id = 0; id < cutoff; id++)
+					visit(id, q, nearest);
+				break;
+			}
+
+			for (int b = 0; b < numberOfBlocks; b++)
+				probe(b, blockStart[b], radius, getBlockCode(b, q, 0), q,
+						cutoff, nearest);
+
+			// Every bid within this distance has been visited now
+			int complete = numberOfBlocks * (radius + 1) - 1;
+			if (nearest.isFull() && nearest.getWorstDistance() <= complete)
+				break;
+		}
+
+		for (int i = 0; i < nearest.size; i++)
+			result.add(bids[nearest.ids[i]]);
+		return result;
+	}
+
+	/**
+	 * Visit the buckets of all codes that differ in exactly radius issues
+	 * from the query in a block, by changing the issues from the given one
+	 * onwards
+	 */
+	private void probe(int block, int issue, int radius, int code, int[] q,
+			int cutoff, Nearest nearest) {
+		if (radius == 0) {
+			int[] bucket = buckets.get(block).get(code);
+			if (bucket == null)
+				return;
+			for (int id : bucket) {
+				if (id >= cutoff)
+					break;
+				visit(id, q, nearest);
+			}
+			return;
+		}
+
+		int end = blockStart[block + 1];
+		for (int i = issue; i <= end - radius; i++) {
+			int base = code - q[i] * multipliers[i];
+			for (int v = 0; v < cardinalities[i]; v++)
+				if (v != q[i])
+					probe(block, i + 1, radius - 1, base + v * multipliers[i],
+							q, cutoff, nearest);
+		}
+	}
+
+	private void visit(int id, int[] q, Nearest nearest) {
+		if (visited[id] == query)
+			return;
+		visited[id] = query;
+
+		int distance = 0;
+		int offset = id * numberOfIssues;
+		for (int i = 0; i < numberOfIssues; i++)
+			if (values[offset + i] != q[i])
+				distance++;
+		nearest.offer(id, distance);
+	}
+
+	/**
+	 * @return the amount of block codes that are probed for a radius
+	 */
+	private long getNeighbourCount(int radius) {
+		long total = 0;
+		for (int b = 0; b + 1 < blockStart.length; b++) {
+			// count[r] is the amount of codes that differ in r issues
+			long[] count = new long[radius + 1];
+			count[0] = 1;
+			for (int i = blockStart[b]; i < blockStart[b + 1]; i++)
+				for (int r = radius; r > 0; r--)
+					count[r] += count[r - 1] * (cardinalities[i] - 1);
+			total += count[radius];
+		}
+		return total;
+	}
+
+	/**
+	 * @return the amount of bids with at least the given own utility
+	 */
+	private int getCountAtLeast(double utility) {
+		int low = 0;
+		int high = utilities.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (utilities[middle] >= utility)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	public int size() {
+		return bids.length;
+	}
+
+	/**
+	 * The k nearest bids found so far, sorted on distance and then on id
+	 */
+	private static class Nearest {
+		final int[] ids;
+		final int[] distances;
+		int size;
+
+		Nearest(int k) {
+			ids = new int[k];
+			distances = new int[k];
+		}
+
+		boolean isFull() {
+			return size == ids.length;
+		}
+
+		int getWorstDistance() {
+			return distances[size - 1];
+		}
+
+		void offer(int id, int distance) {
+			int position = size;
+			while (position > 0
+					&& (distances[position - 1] > distance || distances[position - 1] == distance
+							&& ids[position - 1] > id))
+				position--;
+			if (position == ids.length)
+				return;
+
+			int last = Math.min(size, ids.length - 1);
+			System.arraycopy(ids, position, ids, position + 1, last - position);
+			System.arraycopy(distances, position, distances, position + 1,
+					last - position);
+			ids[position] = id;
+			distances[position] = distance;
+			if (size < ids.length)
+				size++;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package negotiator.group11;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary format of a recorded negotiation session.
+ *
+ * A trace starts with a header describing the session (domain, profile,
+ * deadlines and random seed), followed by an append-only list of records. Each
+ * record is either a message received by the agent or an action chosen by the
+ * agent. Bids are stored as codes of a {@link BidEncoder}, and numbers as
+ * variable length integers to keep the trace compact.
+ *
+ * A trace that was cut off in the middle of a record (because the session
+ * crashed) can still be read up to the last complete record.
+ */
+public class NegotiationTrace {
+
+	static final int MAGIC = 0x47313154;
+	static final short VERSION = 1;
+
+	static final byte RECORD_RECEIVE = 1;
+	static final byte RECORD_CHOOSE = 2;
+
+	static final byte ACTION_OFFER = 1;
+	static final byte ACTION_ACCEPT = 2;
+	static final byte ACTION_END = 3;
+	static final byte ACTION_INFORM = 4;
+	static final byte ACTION_UNKNOWN = 5;
+
+	static final int VALID_ACCEPT = 1;
+	static final int VALID_OFFER = 2;
+	static final int VALID_END = 4;
+
+	/**
+	 * Description of the recorded session
+	 */
+	public static class Header {
+		public String domainName;
+		public String utilitySpaceFile;
+		public long randomSeed;
+		public int roundDeadline;
+		public int timeDeadline;
+		public long startMillis;
+	}
+
+	/**
+	 * A single recorded message or action
+	 */
+	public static class Record {
+		public byte kind;
+		/** Nanoseconds since the start of the session */
+		public long nanos;
+		/** Negotiation time (0 to 1) as seen by the agent */
+		public double time;
+		public String sender;
+		public byte actionType;
+		public long bidCode = -1;
+		public String informName;
+		public int informValue;
+		public int validActions;
+		/** Time spent in chooseAction, in nanoseconds */
+		public long latency;
+
+		public boolean isReceive() {
+			return kind == RECORD_RECEIVE;
+		}
+
+		public boolean isChoose() {
+			return kind == RECORD_CHOOSE;
+		}
+	}
+
+	/**
+	 * Sequential reader of a trace file
+	 */
+	public static class Reader implements Closeable {
+		private final DataInputStream in;
+		private final Header header;
+		private final List<String> senders = new ArrayList<String>();
+		private long lastNanos;
+
+		public Reader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a negotiation trace");
+			short version = in.readShort();
+			if (version != VERSION)
+				throw new IOException("Unsupported trace version " + version);
+
+			header = new Header();
+			header.domainName = in.readUTF();
+			header.utilitySpaceFile = in.readUTF();
+			header.randomSeed = in.readLong();
+			header.roundDeadline = in.readInt();
+			header.timeDeadline = in.readInt();
+			header.startMillis = in.readLong();
+		}
+
+		public Header getHeader() {
+			return header;
+		}
+
+		/**
+		 * Read the next record
+		 *
+		 * @return the next record, or null when the end of the (possibly
+		 *         truncated) trace is reached
+		 * @throws IOException
+		 */
+		public Record next() throws IOException {
+			try {
+				int kind = in.read();
+				if (kind < 0)
+					return null;
+
+				Record r = new Record();
+				r.kind = (byte) kind;
+				lastNanos += readVarLong(in);
+				r.nanos = lastNanos;
+				r.time = in.readDouble();
+
+				if (r.kind == RECORD_RECEIVE) {
+					int senderIndex = (int) readVarLong(in);
+					if (senderIndex == senders.size())
+						senders.add(in.readUTF());
+					r.sender = senders.get(senderIndex);
+				} else if (r.kind == RECORD_CHOOSE) {
+					r.validActions = in.readByte();
+				} else {
+					throw new IOException("Corrupt trace record " + kind);
+				}
+
+				r.actionType = in.readByte();
+				if (r.actionType == ACTION_OFFER) {
+					r.bidCode = readVarLong(in);
+				} else if (r.actionType == ACTION_INFORM) {
+					r.informName = in.readUTF();
+					r.informValue = (int) readVarLong(in);
+				}
+
+				if (r.kind == RECORD_CHOOSE)
+					r.latency = readVarLong(in);
+
+				return r;
+			} catch (EOFException e) {
+				// Session was cut off in the middle of a record
+				return null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write a non-negative long as a variable length integer
+	 */
+	static void writeVarLong(DataOutputStream out, long value)
+			throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Read a variable length integer written by
+	 * {@link #writeVarLong(DataOutputStream, long)}
+	 */
+	static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
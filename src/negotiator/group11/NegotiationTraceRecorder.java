@@ -0,0 +1,214 @@
+package negotiator.group11;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import negotiator.Bid;
+import negotiator.DeadlineType;
+import negotiator.actions.Accept;
+import negotiator.actions.Action;
+import negotiator.actions.EndNegotiation;
+import negotiator.actions.Inform;
+import negotiator.actions.Offer;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Records all messages received and actions chosen by the agent to a
+ * {@link NegotiationTrace}, so the session can be replayed offline by the
+ * {@link NegotiationTraceReplayer}.
+ *
+ * Recording is enabled by setting the system property
+ * {@value #TRACE_DIRECTORY_PROPERTY} to the directory the traces should be
+ * written to.
+ *
+ * Records are collected in memory and appended to the trace file after each
+ * chosen action. The file is only open while appending, so a session that
+ * ends without the recorder being closed does not leak a file handle.
+ */
+public class NegotiationTraceRecorder {
+
+	public static final String TRACE_DIRECTORY_PROPERTY = "negotiator.group11.trace";
+
+	private final File file;
+	/** Records that are not yet appended to the file */
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream(buffer);
+	private final BidEncoder encoder;
+	private final HashMap<String, Integer> senders = new HashMap<String, Integer>();
+	private final long startNanos;
+	private long lastNanos;
+
+	public NegotiationTraceRecorder(File file, UtilitySpace utilitySpace,
+			Map<DeadlineType, Object> deadlines, long randomSeed)
+			throws IOException {
+		this.file = file;
+		encoder = new BidEncoder(utilitySpace.getDomain());
+		startNanos = System.nanoTime();
+
+		String fileName = utilitySpace.getFileName();
+		out.writeInt(NegotiationTrace.MAGIC);
+		out.writeShort(NegotiationTrace.VERSION);
+		out.writeUTF(String.valueOf(utilitySpace.getDomain().getName()));
+		out.writeUTF(fileName == null ? "" : fileName);
+		out.writeLong(randomSeed);
+		out.writeInt(getDeadline(deadlines, DeadlineType.ROUND));
+		out.writeInt(getDeadline(deadlines, DeadlineType.TIME));
+		out.writeLong(System.currentTimeMillis());
+		flush();
+	}
+
+	/**
+	 * Create a recorder when recording is enabled for this JVM
+	 *
+	 * @return a new recorder, or null when recording is disabled or the domain
+	 *         can not be recorded
+	 */
+	public static NegotiationTraceRecorder createIfEnabled(
+			UtilitySpace utilitySpace, Map<DeadlineType, Object> deadlines,
+			long randomSeed) {
+		String directory = System.getProperty(TRACE_DIRECTORY_PROPERTY);
+		if (directory == null || !BidEncoder.supports(utilitySpace.getDomain()))
+			return null;
+
+		File file = new File(directory, "group11-" + randomSeed + "-"
+				+ System.nanoTime() + ".g11t");
+		try {
+			return new NegotiationTraceRecorder(file, utilitySpace, deadlines,
+					randomSeed);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Record a message received from another party
+	 *
+	 * @param time
+	 *            negotiation time as seen by the agent
+	 * @param sender
+	 * @param action
+	 */
+	public void recordReceiveMessage(double time, Object sender, Action action) {
+		try {
+			writeRecordStart(NegotiationTrace.RECORD_RECEIVE, time);
+
+			String name = String.valueOf(sender);
+			Integer index = senders.get(name);
+			if (index == null) {
+				NegotiationTrace.writeVarLong(out, senders.size());
+				out.writeUTF(name);
+				senders.put(name, senders.size());
+			} else {
+				NegotiationTrace.writeVarLong(out, index);
+			}
+
+			writeAction(action);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Record an action chosen by the agent. The trace is flushed after each
+	 * chosen action, so at most one round is lost when the session crashes.
+	 *
+	 * @param time
+	 *            negotiation time as seen by the agent
+	 * @param validActions
+	 *            the actions the agent was allowed to choose from
+	 * @param action
+	 *            the chosen action
+	 * @param latency
+	 *            time spent choosing the action, in nanoseconds
+	 */
+	@SuppressWarnings("rawtypes")
+	public void recordChooseAction(double time, List<Class> validActions,
+			Action action, long latency) {
+		try {
+			writeRecordStart(NegotiationTrace.RECORD_CHOOSE, time);
+
+			int valid = 0;
+			if (validActions.contains(Accept.class))
+				valid |= NegotiationTrace.VALID_ACCEPT;
+			if (validActions.contains(Offer.class))
+				valid |= NegotiationTrace.VALID_OFFER;
+			if (validActions.contains(EndNegotiation.class))
+				valid |= NegotiationTrace.VALID_END;
+			out.writeByte(valid);
+
+			writeAction(action);
+			NegotiationTrace.writeVarLong(out, latency);
+			flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void writeRecordStart(byte kind, double time) throws IOException {
+		long now = System.nanoTime() - startNanos;
+		out.writeByte(kind);
+		NegotiationTrace.writeVarLong(out, now - lastNanos);
+		out.writeDouble(time);
+		lastNanos = now;
+	}
+
+	private void writeAction(Action action) throws IOException {
+		if (action instanceof Offer) {
+			Bid bid = Action.getBidFromAction(action);
+			out.writeByte(NegotiationTrace.ACTION_OFFER);
+			NegotiationTrace.writeVarLong(out, encoder.encode(bid));
+		} else if (action instanceof Accept) {
+			out.writeByte(NegotiationTrace.ACTION_ACCEPT);
+		} else if (action instanceof EndNegotiation) {
+			out.writeByte(NegotiationTrace.ACTION_END);
+		} else if (action instanceof Inform) {
+			Inform inform = (Inform) action;
+			Object value = inform.getValue();
+			out.writeByte(NegotiationTrace.ACTION_INFORM);
+			out.writeUTF(String.valueOf(inform.getName()));
+			NegotiationTrace.writeVarLong(out,
+					value instanceof Integer ? (Integer) value : 0);
+		} else {
+			out.writeByte(NegotiationTrace.ACTION_UNKNOWN);
+		}
+	}
+
+	/**
+	 * Append the collected records to the trace file
+	 */
+	private void flush() throws IOException {
+		FileOutputStream file = new FileOutputStream(this.file, true);
+		try {
+			buffer.writeTo(file);
+		} finally {
+			file.close();
+		}
+		buffer.reset();
+	}
+
+	/**
+	 * Append the records received since the last chosen action
+	 */
+	public void close() {
+		try {
+			flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static int getDeadline(Map<DeadlineType, Object> deadlines,
+			DeadlineType type) {
+		if (deadlines == null)
+			return 0;
+		Object d = deadlines.get(type);
+		return d instanceof Integer ? (Integer) d : 0;
+	}
+}
@@ -0,0 +1,247 @@
+package negotiator.group11;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import negotiator.Bid;
+import negotiator.DeadlineType;
+import negotiator.Domain;
+import negotiator.Timeline;
+import negotiator.actions.Accept;
+import negotiator.actions.Action;
+import negotiator.actions.EndNegotiation;
+import negotiator.actions.Inform;
+import negotiator.actions.Offer;
+import negotiator.group11.NegotiationTrace.Header;
+import negotiator.group11.NegotiationTrace.Record;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Replays recorded {@link NegotiationTrace}s into a fresh agent at full speed,
+ * without the genius protocol layer.
+ *
+ * The received messages are fed to the agent in the recorded order, and every
+ * recorded chooseAction is repeated while measuring its latency. The chosen
+ * actions are compared with the recorded ones, so behavioural changes show up
+ * as divergences.
+ *
+ * Usage: NegotiationTraceReplayer domain.xml profile.xml [iterations] trace...
+ */
+public class NegotiationTraceReplayer {
+
+	private final Domain domain;
+	private final String utilitySpaceFile;
+	private final BidEncoder encoder;
+
+	public NegotiationTraceReplayer(Domain domain, String utilitySpaceFile) {
+		this.domain = domain;
+		this.utilitySpaceFile = utilitySpaceFile;
+		this.encoder = new BidEncoder(domain);
+	}
+
+	/**
+	 * Result of replaying a single trace
+	 */
+	public static class ReplayResult {
+		public int rounds;
+		public int divergences;
+		/** chooseAction latencies during the replay, in nanoseconds */
+		public long[] latencies;
+		/** chooseAction latencies during the recording, in nanoseconds */
+		public long[] recordedLatencies;
+
+		public long getMaxLatency() {
+			long max = 0;
+			for (long l : latencies)
+				max = Math.max(max, l);
+			return max;
+		}
+
+		public double getMeanLatency() {
+			double sum = 0;
+			for (long l : latencies)
+				sum += l;
+			return latencies.length == 0 ? 0 : sum / latencies.length;
+		}
+
+		public long getLatencyPercentile(double p) {
+			if (latencies.length == 0)
+				return 0;
+			long[] sorted = Arrays.copyOf(latencies, latencies.length);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(p * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+		}
+	}
+
+	/**
+	 * Replay a trace into a new agent
+	 *
+	 * @param trace
+	 * @return statistics of the replay
+	 * @throws Exception
+	 *             when the profile or trace can not be read
+	 */
+	public ReplayResult replay(File trace) throws Exception {
+		NegotiationTrace.Reader reader = new NegotiationTrace.Reader(trace);
+		try {
+			Header header = reader.getHeader();
+
+			Map<DeadlineType, Object> deadlines = new HashMap<DeadlineType, Object>();
+			if (header.roundDeadline != 0)
+				deadlines.put(DeadlineType.ROUND, header.roundDeadline);
+			if (header.timeDeadline != 0)
+				deadlines.put(DeadlineType.TIME, header.timeDeadline);
+
+			ReplayTimeline timeline = new ReplayTimeline();
+			UtilitySpace utilitySpace = new UtilitySpace(domain,
+					utilitySpaceFile);
+			Group11 agent = new Group11(utilitySpace, deadlines, timeline,
+					header.randomSeed);
+
+			ArrayList<Long> latencies = new ArrayList<Long>();
+			ArrayList<Long> recordedLatencies = new ArrayList<Long>();
+			ReplayResult result = new ReplayResult();
+
+			Record r;
+			while ((r = reader.next()) != null) {
+				timeline.setTime(r.time);
+				if (r.isReceive()) {
+					Action action = toAction(r);
+					if (action != null)
+						agent.receiveMessage(r.sender, action);
+				} else {
+					long start = System.nanoTime();
+					Action chosen = agent.chooseAction(toValidActions(r));
+					latencies.add(System.nanoTime() - start);
+					recordedLatencies.add(r.latency);
+
+					if (!isSameAction(r, chosen))
+						result.divergences++;
+					result.rounds++;
+				}
+			}
+
+			result.latencies = toArray(latencies);
+			result.recordedLatencies = toArray(recordedLatencies);
+			return result;
+		} finally {
+			reader.close();
+		}
+	}
+
+	Action toAction(Record r) {
+		switch (r.actionType) {
+		case NegotiationTrace.ACTION_OFFER:
+			return r.bidCode < 0 ? null : new Offer(encoder.decode(r.bidCode));
+		case NegotiationTrace.ACTION_ACCEPT:
+			return new Accept();
+		case NegotiationTrace.ACTION_END:
+			return new EndNegotiation();
+		case NegotiationTrace.ACTION_INFORM:
+			return new Inform().setName(r.informName).setValue(r.informValue);
+		default:
+			return null;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	static List<Class> toValidActions(Record r) {
+		List<Class> valid = new ArrayList<Class>();
+		if ((r.validActions & NegotiationTrace.VALID_ACCEPT) != 0)
+			valid.add(Accept.class);
+		if ((r.validActions & NegotiationTrace.VALID_OFFER) != 0)
+			valid.add(Offer.class);
+		if ((r.validActions & NegotiationTrace.VALID_END) != 0)
+			valid.add(EndNegotiation.class);
+		return valid;
+	}
+
+	private boolean isSameAction(Record r, Action chosen) {
+		switch (r.actionType) {
+		case NegotiationTrace.ACTION_OFFER:
+			if (!(chosen instanceof Offer))
+				return false;
+			Bid bid = Action.getBidFromAction(chosen);
+			return encoder.encode(bid) == r.bidCode;
+		case NegotiationTrace.ACTION_ACCEPT:
+			return chosen instanceof Accept;
+		case NegotiationTrace.ACTION_END:
+			return chosen instanceof EndNegotiation;
+		default:
+			return false;
+		}
+	}
+
+	private static long[] toArray(List<Long> list) {
+		long[] result = new long[list.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = list.get(i);
+		return result;
+	}
+
+	/**
+	 * Timeline that follows the recorded negotiation time
+	 */
+	static class ReplayTimeline extends Timeline {
+		private double time;
+
+		void setTime(double time) {
+			this.time = time;
+		}
+
+		@Override
+		public double getTime() {
+			return time;
+		}
+
+		@Override
+		public double getTotalTime() {
+			return 1;
+		}
+
+		@Override
+		public double getCurrentTime() {
+			return time;
+		}
+
+		@Override
+		public void printTime() {
+			System.out.println("Replay time: " + time);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: NegotiationTraceReplayer domain.xml "
+					+ "profile.xml [iterations] trace...");
+			return;
+		}
+
+		int iterations = 1;
+		int firstTrace = 2;
+		if (args[2].matches("\\d+")) {
+			iterations = Integer.parseInt(args[2]);
+			firstTrace = 3;
+		}
+
+		NegotiationTraceReplayer replayer = new NegotiationTraceReplayer(
+				new Domain(args[0]), args[1]);
+
+		for (int t = firstTrace; t < args.length; t++) {
+			for (int i = 0; i < iterations; i++) {
+				ReplayResult r = replayer.replay(new File(args[t]));
+				System.out.println(String.format(
+						"%s #%d: rounds=%d divergences=%d mean=%.1fus "
+								+ "p99=%.1fus max=%.1fus", args[t], i,
+						r.rounds, r.divergences, r.getMeanLatency() / 1000,
+						r.getLatencyPercentile(0.99) / 1000.0,
+						r.getMaxLatency() / 1000.0));
+			}
+		}
+	}
+}
@@ -28,6 +28,13 @@ public class OpponentBidHistory {
 		bids.add(new BidSequence(previousBid, newBid));
 	}
 
+	/**
+	 * @return the last bid in this history, or null if there are none
+	 */
+	public Bid getLastBid() {
+		return bids.isEmpty() ? null : bids.get(bids.size() - 1).current;
+	}
+
 	/**
 	 * @return the amount of bids in this history
 	 */
@@ -62,18 +69,18 @@ public class OpponentBidHistory {
 				if (currentDistance == previousDistance) {
 					Integer c = counts.get(BidModificationStrategy.UNKNOWN);
 					int currentCount = c == null ? 0 : c;
-					counts.put(BidModificationStrategy.UNKNOWN, currentCount++);
+					counts.put(BidModificationStrategy.UNKNOWN, currentCount + 1);
 				} else if (currentDistance < previousDistance) {
 					Integer c = counts
 							.get(BidModificationStrategy.MODIFY_PREVIOUS);
 					int currentCount = c == null ? 0 : c;
 					counts.put(BidModificationStrategy.MODIFY_PREVIOUS,
-							currentCount++);
+							currentCount + 1);
 				} else {
 					Integer c = counts.get(BidModificationStrategy.MODIFY_SELF);
 					int currentCount = c == null ? 0 : c;
 					counts.put(BidModificationStrategy.MODIFY_SELF,
-							currentCount++);
+							currentCount + 1);
 				}
 			}
 
@@ -0,0 +1,149 @@
+package negotiator.group11;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Persistent store of learned opponent models, so a new session against a
+ * known opponent on a known domain can start from what was learned before.
+ *
+ * Every (domain, opponent) pair is stored in its own small binary file. Files
+ * are written to a temporary file first and then renamed, so a crash while
+ * saving never corrupts an earlier model. Every model class writes its own
+ * layout, so the class is stored as well and a model is only loaded into a
+ * model of the same class.
+ *
+ * The store is enabled by setting the system property
+ * {@value #MODEL_DIRECTORY_PROPERTY} to the directory the models should be
+ * kept in.
+ */
+public class OpponentModelStore {
+
+	public static final String MODEL_DIRECTORY_PROPERTY = "negotiator.group11.models";
+
+	private static final int MAGIC = 0x4731314D;
+	private static final short VERSION = 4;
+
+	private final File directory;
+
+	public OpponentModelStore(File directory) {
+		this.directory = directory;
+		directory.mkdirs();
+	}
+
+	/**
+	 * @return the store configured for this JVM, or null if there is none
+	 */
+	public static OpponentModelStore createIfEnabled() {
+		String directory = System.getProperty(MODEL_DIRECTORY_PROPERTY);
+		return directory == null ? null : new OpponentModelStore(new File(
+				directory));
+	}
+
+	/**
+	 * Get a stable identity for an opponent. Default object names like
+	 * "Party@1b6d3586" differ per session, so the hash code is dropped.
+	 *
+	 * @param sender
+	 *            the sender of the messages of the opponent
+	 * @return the identity of the opponent
+	 */
+	public static String getOpponentKey(Object sender) {
+		return String.valueOf(sender).replaceAll("@[0-9a-fA-F]+$", "");
+	}
+
+	/**
+	 * Warm start a model with what was learned about an opponent before
+	 *
+	 * @param domainName
+	 * @param opponentKey
+	 * @param model
+	 *            a new model for the opponent, of the class of the stored
+	 *            model
+	 * @param maxObservations
+	 *            the maximum amount of offers the loaded counts weigh as
+	 * @return true iff a stored model was loaded
+	 */
+	public boolean load(String domainName, String opponentKey,
+			OpponentUtilityModel model, int maxObservations) {
+		File file = getFile(domainName, opponentKey);
+		if (!file.exists())
+			return false;
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readShort() != VERSION)
+					return false;
+				if (!in.readUTF().equals(domainName)
+						|| !in.readUTF().equals(opponentKey)
+						|| !in.readUTF().equals(model.getClass().getName()))
+					return false;
+				model.readFrom(in, maxObservations);
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Store what was learned about an opponent
+	 *
+	 * @param domainName
+	 * @param opponentKey
+	 * @param model
+	 */
+	public void save(String domainName, String opponentKey,
+			OpponentUtilityModel model) {
+		File file = getFile(domainName, opponentKey);
+
+		try {
+			// Every save writes its own temporary file, so parallel sessions
+			// never write to the same one
+			File temporary = File.createTempFile("model", ".tmp", directory);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeShort(VERSION);
+				out.writeUTF(domainName);
+				out.writeUTF(opponentKey);
+				out.writeUTF(model.getClass().getName());
+				model.writeTo(out);
+			} finally {
+				out.close();
+			}
+
+			if (!temporary.renameTo(file)) {
+				// Windows does not replace an existing file on rename
+				file.delete();
+				if (!temporary.renameTo(file)) {
+					temporary.delete();
+					throw new IOException("Could not replace " + file);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private File getFile(String domainName, String opponentKey) {
+		return new File(directory, sanitize(domainName) + "__"
+				+ sanitize(opponentKey) + ".g11m");
+	}
+
+	private static String sanitize(String name) {
+		return name.replaceAll("[^A-Za-z0-9_.-]", "_");
+	}
+}
@@ -0,0 +1,204 @@
+package negotiator.group11;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import negotiator.Bid;
+import negotiator.Domain;
+import negotiator.issue.ISSUETYPE;
+import negotiator.issue.Issue;
+import negotiator.issue.IssueDiscrete;
+import negotiator.issue.Value;
+
+/**
+ * How often the values of a domain are offered by one type of opponent, over
+ * all sessions in this JVM. Sessions against the same opponent on the same
+ * domain add the offers they observe, and start their new opponent models
+ * from what the other sessions observed, like {@link OpponentModelStore} does
+ * across JVMs.
+ *
+ * Counts are kept in several stripes of atomic counters, and a thread only
+ * adds to its own stripe, so concurrent sessions do not contend on the same
+ * counters and never take a lock. Reading sums the stripes, which gives a
+ * count that may miss offers added at the same time; that is good enough
+ * for a prior.
+ *
+ * Populations are enabled by setting the system property
+ * {@value #POPULATION_PROPERTY} to true.
+ */
+public class OpponentPopulation {
+
+	public static final String POPULATION_PROPERTY = "negotiator.group11.population";
+
+	/** Populations by domain name and opponent key */
+	private static final ConcurrentMap<String, OpponentPopulation> populations = new ConcurrentHashMap<String, OpponentPopulation>();
+
+	/** Maximum amount of stripes, a power of two */
+	private static final int maxStripes = 16;
+
+	private final IssueDiscrete[] issues;
+	/** Index of every value of an issue */
+	private final HashMap<Value, Integer>[] valueIndices;
+	/** Position of the first value of every issue in a stripe */
+	private final int[] offsets;
+	/** Counter of every value, followed by the amount of offers */
+	private final AtomicLongArray[] stripes;
+	private final int offersIndex;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private OpponentPopulation(Domain d) {
+		List<Issue> domainIssues = d.getIssues();
+		int n = domainIssues.size();
+		issues = new IssueDiscrete[n];
+		valueIndices = new HashMap[n];
+		offsets = new int[n];
+		int total = 0;
+		for (int i = 0; i < n; i++) {
+			issues[i] = (IssueDiscrete) domainIssues.get(i);
+			valueIndices[i] = new HashMap<Value, Integer>();
+			for (int j = 0; j < issues[i].getNumberOfValues(); j++)
+				valueIndices[i].put(issues[i].getValue(j), j);
+			offsets[i] = total;
+			total += issues[i].getNumberOfValues();
+		}
+		offersIndex = total;
+
+		int count = 1;
+		while (count < maxStripes
+				&& count < Runtime.getRuntime().availableProcessors())
+			count *= 2;
+		stripes = new AtomicLongArray[count];
+		for (int s = 0; s < count; s++)
+			stripes[s] = new AtomicLongArray(total + 1);
+	}
+
+	/**
+	 * @return true iff populations are enabled for this JVM
+	 */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(POPULATION_PROPERTY);
+	}
+
+	/**
+	 * Get the population of an opponent on a domain, which is created when it
+	 * is new
+	 *
+	 * @param d
+	 * @param opponentKey
+	 *            see {@link OpponentModelStore#getOpponentKey(Object)}
+	 * @return the population, or null if the domain has issues that are not
+	 *         discrete
+	 */
+	public static OpponentPopulation get(Domain d, String opponentKey) {
+		for (Issue i : d.getIssues())
+			if (i.getType() != ISSUETYPE.DISCRETE)
+				return null;
+
+		String key = d.getName() + "\n" + opponentKey;
+		OpponentPopulation population = populations.get(key);
+		if (population == null) {
+			OpponentPopulation created = new OpponentPopulation(d);
+			population = populations.putIfAbsent(key, created);
+			if (population == null)
+				population = created;
+		}
+		return population;
+	}
+
+	/**
+	 * Count the values of an offer of the opponent
+	 *
+	 * @param b
+	 */
+	public void addOffer(Bid b) {
+		HashMap<Integer, Value> values = b.getValues();
+		int[] positions = new int[issues.length];
+		for (int i = 0; i < issues.length; i++) {
+			Integer index = valueIndices[i].get(values.get(issues[i]
+					.getNumber()));
+			if (index == null)
+				return;
+			positions[i] = offsets[i] + index;
+		}
+
+		AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId()
+				& (stripes.length - 1)];
+		for (int position : positions)
+			stripe.incrementAndGet(position);
+		stripe.incrementAndGet(offersIndex);
+	}
+
+	/**
+	 * @return the amount of offers counted over all sessions
+	 */
+	public long getOffers() {
+		return getCount(offersIndex);
+	}
+
+	private long getCount(int index) {
+		long sum = 0;
+		for (AtomicLongArray stripe : stripes)
+			sum += stripe.get(index);
+		return sum;
+	}
+
+	/**
+	 * @return true iff the model can be started from a population, which are
+	 *         the models that count values exactly
+	 */
+	public static boolean supports(OpponentUtilityModel model) {
+		return model.getClass() == OpponentUtilityModel.class;
+	}
+
+	/**
+	 * Warm start a new model with the counts of the population
+	 *
+	 * @param model
+	 *            a model that is {@link #supports(OpponentUtilityModel)
+	 *            supported}
+	 * @param maxObservations
+	 *            the maximum amount of offers the counts weigh as
+	 * @return true iff the population had counts for the model
+	 */
+	public boolean warmStart(OpponentUtilityModel model, int maxObservations) {
+		long offers = getOffers();
+		if (offers == 0)
+			return false;
+
+		// The counts are passed in the format of
+		// OpponentUtilityModel.writeTo. The weights are placeholders, the
+		// model computes its weights from the counts when reading them.
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeDouble(offers);
+			out.writeInt(issues.length);
+			for (int i = 0; i < issues.length; i++) {
+				out.writeInt(issues[i].getNumber());
+				out.writeDouble(1.0 / issues.length);
+				out.writeInt(issues[i].getNumberOfValues());
+				for (int j = 0; j < issues[i].getNumberOfValues(); j++) {
+					out.writeUTF(issues[i].getValue(j).getValue());
+					out.writeDouble(getCount(offsets[i] + j));
+				}
+			}
+			out.flush();
+
+			model.readFrom(
+					new DataInputStream(new ByteArrayInputStream(bytes
+							.toByteArray())), maxObservations);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+}
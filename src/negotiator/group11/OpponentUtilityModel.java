@@ -1,5 +1,8 @@
 package negotiator.group11;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map.Entry;
 
@@ -23,15 +26,88 @@ public class OpponentUtilityModel {
 	private OpponentBidHistory acceptedBids;
 
 	private HashMap<IssueDiscrete, Double> issueWeights;
-	private HashMap<IssueDiscrete, HashMap<ValueDiscrete, Integer>> valueCounts;
+	private HashMap<IssueDiscrete, HashMap<ValueDiscrete, Double>> valueCounts;
+
+	/**
+	 * The issues of the domain, with the weight, the value counts and the
+	 * largest count of each issue at the same position, so evaluating a bid
+	 * only looks up the count of the value of every issue
+	 */
+	private IssueDiscrete[] issues;
+	private double[] weights;
+	private HashMap<ValueDiscrete, Double>[] issueCounts;
+	private double[] maxCounts;
+
+	/**
+	 * Factor by which all counts decay per observed bid; 1 keeps raw counts.
+	 * 
+	 * Instead of multiplying every count on each update, new observations are
+	 * added with an ever increasing weight. Only the ratios between counts are
+	 * used, so this gives the same model. When the weight gets too large all
+	 * counts are scaled back once.
+	 */
+	private final double decay;
+	private double observationWeight = 1;
+	private static final double maxObservationWeight = 1e100;
+
+	/**
+	 * Weighted amount of offers the counts are based on, in the same scale as
+	 * the counts
+	 */
+	private double offerWeight;
+
+	/**
+	 * Incremented every time the modeled utilities change
+	 */
+	private int version;
+
+	/**
+	 * Amount of offers observed in earlier sessions, loaded with
+	 * {@link #readFrom(DataInputStream, int)}
+	 */
+	private int priorObservations;
+
+	/**
+	 * Amount of weight updates over which the convergence is measured
+	 */
+	private static final int convergenceWindow = 10;
+
+	/**
+	 * The last changes in issue weights, as a ring buffer
+	 */
+	private double[] weightChanges = new double[convergenceWindow];
+	private int weightUpdates;
+	private double weightChangeSum;
+
+	/** Set between {@link #beginBatch()} and {@link #endBatch()} */
+	private boolean batching;
+	/** Set when the counters changed during a batch */
+	private boolean weightsOutdated;
 
 	public OpponentUtilityModel(Domain d) throws InvalidDomainException {
+		this(d, 1);
+	}
+
+	/**
+	 * Create a model where older bids count less than recent ones, so the
+	 * model follows an opponent that changes its behaviour
+	 * 
+	 * @param d
+	 * @param decay
+	 *            factor in (0, 1] by which all counts decay per observed bid
+	 * @throws InvalidDomainException
+	 */
+	public OpponentUtilityModel(Domain d, double decay)
+			throws InvalidDomainException {
+		if (decay <= 0 || decay > 1)
+			throw new IllegalArgumentException("Decay should be in (0, 1]");
+		this.decay = decay;
 
 		allBids = new OpponentBidHistory();
 		acceptedBids = new OpponentBidHistory();
 
 		issueWeights = new HashMap<IssueDiscrete, Double>();
-		valueCounts = new HashMap<IssueDiscrete, HashMap<ValueDiscrete, Integer>>();
+		valueCounts = new HashMap<IssueDiscrete, HashMap<ValueDiscrete, Double>>();
 
 		double defaultIssueWeight = 1.0 / d.getIssues().size();
 
@@ -41,9 +117,9 @@ public class OpponentUtilityModel {
 				IssueDiscrete id = (IssueDiscrete) i;
 				issueWeights.put(id, defaultIssueWeight);
 
-				HashMap<ValueDiscrete, Integer> valueCount = new HashMap<ValueDiscrete, Integer>();
+				HashMap<ValueDiscrete, Double> valueCount = new HashMap<ValueDiscrete, Double>();
 				for (int j = 0; j < id.getNumberOfValues(); j++)
-					valueCount.put(id.getValue(j), 0);
+					valueCount.put(id.getValue(j), 0.0);
 
 				valueCounts.put(id, valueCount);
 				break;
@@ -51,6 +127,65 @@ public class OpponentUtilityModel {
 				throw new InvalidDomainException(i.getType());
 			}
 		}
+		indexIssues();
+	}
+
+	/**
+	 * Put the issues and their counts in arrays
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void indexIssues() {
+		issues = valueCounts.keySet().toArray(
+				new IssueDiscrete[valueCounts.size()]);
+		issueCounts = new HashMap[issues.length];
+		maxCounts = new double[issues.length];
+		for (int i = 0; i < issues.length; i++) {
+			issueCounts[i] = valueCounts.get(issues[i]);
+			maxCounts[i] = getMaxValue(issueCounts[i]);
+		}
+		weights = new double[issues.length];
+		indexWeights();
+	}
+
+	/**
+	 * Copy the issue weights to the array of weights per issue position
+	 */
+	private void indexWeights() {
+		for (int i = 0; i < issues.length; i++)
+			weights[i] = issueWeights.get(issues[i]);
+	}
+
+	/**
+	 * Create a model without value counters, for subclasses that keep their
+	 * own statistics of the offered values
+	 */
+	protected OpponentUtilityModel() {
+		decay = 1;
+		allBids = new OpponentBidHistory();
+		acceptedBids = new OpponentBidHistory();
+		issueWeights = new HashMap<IssueDiscrete, Double>();
+		valueCounts = new HashMap<IssueDiscrete, HashMap<ValueDiscrete, Double>>();
+		indexIssues();
+	}
+
+	/**
+	 * Create the model that fits a domain: counters per value for small
+	 * discrete domains, and a {@link SketchOpponentModel} for domains with
+	 * huge value sets or integer and real issues
+	 * 
+	 * @param d
+	 * @param decay
+	 *            factor in (0, 1] by which all counts decay per observed bid
+	 * @return a new model
+	 */
+	public static OpponentUtilityModel create(Domain d, double decay) {
+		try {
+			if (!SketchOpponentModel.isNeededFor(d))
+				return new OpponentUtilityModel(d, decay);
+		} catch (InvalidDomainException e) {
+			// Cannot happen, isNeededFor checks the issue types
+		}
+		return new SketchOpponentModel(d, decay);
 	}
 
 	/**
@@ -66,13 +201,34 @@ public class OpponentUtilityModel {
 		return allBids.getMostLikelyStrategy();
 	}
 
+	/**
+	 * Check whether a bid has a known value for every issue of the domain.
+	 * Bids are checked once when they are added, so the model itself never
+	 * has to handle invalid bids.
+	 * 
+	 * @param b
+	 * @return true iff the bid can be added to this model
+	 */
+	public boolean isValid(Bid b) {
+		if (b == null)
+			return false;
+		HashMap<Integer, Value> values = b.getValues();
+		for (int i = 0; i < issues.length; i++)
+			if (!issueCounts[i].containsKey(values.get(issues[i].getNumber())))
+				return false;
+		return true;
+	}
+
 	/**
 	 * Add a bid that is accepted by this opponent
 	 * 
 	 * @param acceptBid
 	 * @throws InvalidBidException
+	 *             if the bid does not belong to the domain
 	 */
 	public void addAccept(Bid acceptBid) throws InvalidBidException {
+		if (!isValid(acceptBid))
+			throw new InvalidBidException(acceptBid);
 		acceptedBids.add(acceptBid, acceptBid);
 		updateCountersFromBid(acceptBid);
 		updateCountersFromBid(acceptBid);
@@ -84,10 +240,14 @@ public class OpponentUtilityModel {
 	 * @param previousBid the bid that was done before
 	 * @param offerBid the bid that was offered
 	 * @throws InvalidBidException
+	 *             if the offered bid does not belong to the domain
 	 */
 	public void addOffer(Bid previousBid, Bid offerBid)
 			throws InvalidBidException {
+		if (!isValid(offerBid))
+			throw new InvalidBidException(offerBid);
 		allBids.add(previousBid, offerBid);
+		offerWeight += observationWeight;
 		updateCountersFromBid(offerBid);
 	}
 
@@ -95,59 +255,99 @@ public class OpponentUtilityModel {
 	 * Update the internal parameters that count
 	 * how many times each value is offered by this opponent
 	 * 
-	 * @param b the new bid
-	 * @throws InvalidBidException
+	 * @param b the new bid, which is valid
 	 */
-	private void updateCountersFromBid(Bid b) throws InvalidBidException {
-		for (Issue i : b.getIssues()) {
-			switch (i.getType()) {
-			case DISCRETE:
-				try {
-					HashMap<ValueDiscrete, Integer> valueCount = valueCounts
-							.get((IssueDiscrete) i);
-					ValueDiscrete v = (ValueDiscrete) b.getValue(i.getNumber());
-					if (v == null) {
-						throw new InvalidBidException(i.getType());
-					} else {
-						int currentCount = valueCount.get(v);
-						currentCount++;
-						valueCount.put(v, currentCount);
-					}
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-				break;
-			default:
-				throw new InvalidBidException(i.getType());
-			}
+	protected void updateCountersFromBid(Bid b) {
+		HashMap<Integer, Value> values = b.getValues();
+		for (int i = 0; i < issues.length; i++) {
+			Value v = values.get(issues[i].getNumber());
+			double currentCount = issueCounts[i].get(v) + observationWeight;
+			issueCounts[i].put((ValueDiscrete) v, currentCount);
+			maxCounts[i] = Math.max(maxCounts[i], currentCount);
+		}
+		if (decay < 1)
+			increaseObservationWeight();
+		countersChanged();
+	}
+
+	/**
+	 * Start adding a batch of bids. The weights are only recomputed once, at
+	 * {@link #endBatch()}, so they are outdated until then.
+	 */
+	public void beginBatch() {
+		batching = true;
+	}
+
+	/**
+	 * Recompute the weights from all bids added since {@link #beginBatch()}.
+	 * This counts as a single weight update for the convergence.
+	 */
+	public void endBatch() {
+		batching = false;
+		if (weightsOutdated) {
+			weightsOutdated = false;
+			updateWeights();
 		}
+	}
+
+	/**
+	 * Update the weights after the counters changed, or remember to do so at
+	 * the end of the batch
+	 */
+	protected void countersChanged() {
+		if (batching)
+			weightsOutdated = true;
+		else
+			updateWeights();
+	}
+
+	/**
+	 * Recompute the weights from the counters
+	 */
+	protected void updateWeights() {
 		updateWeightsFromCounters();
 	}
 
+	/**
+	 * Let all counts decay by making the next observations weigh more. When
+	 * the weight gets too large, all counts are scaled back so the weight is 1
+	 * again.
+	 */
+	private void increaseObservationWeight() {
+		observationWeight /= decay;
+		if (observationWeight < maxObservationWeight)
+			return;
+
+		for (int i = 0; i < issues.length; i++) {
+			for (Entry<ValueDiscrete, Double> e : issueCounts[i].entrySet())
+				e.setValue(e.getValue() / observationWeight);
+			maxCounts[i] /= observationWeight;
+		}
+		offerWeight /= observationWeight;
+		observationWeight = 1;
+	}
+
 	/**
 	 * Update the model of value weights that is determined from the counters
 	 */
 	private void updateWeightsFromCounters() {
-		double totalAmountOfMeasurementsPerIssue = allBids.getSize();
+		double totalAmountOfMeasurementsPerIssue = offerWeight;
 
 		HashMap<IssueDiscrete, Double> issueVariances = new HashMap<IssueDiscrete, Double>();
 
-		for (Entry<IssueDiscrete, HashMap<ValueDiscrete, Integer>> e : valueCounts
+		for (Entry<IssueDiscrete, HashMap<ValueDiscrete, Double>> e : valueCounts
 				.entrySet()) {
-			HashMap<ValueDiscrete, Integer> valueCount = e.getValue();
+			HashMap<ValueDiscrete, Double> valueCount = e.getValue();
 
-			double[] issueValueCounts = new double[valueCount.size()];
-			int counter = 0;
-			for (Entry<ValueDiscrete, Integer> entry : valueCount.entrySet()) {
+			StreamingStatistics issueValueCounts = new StreamingStatistics();
+			for (Entry<ValueDiscrete, Double> entry : valueCount.entrySet()) {
 				// dividing by the total to ensure that the result and total sum
 				// < 1;
-				issueValueCounts[counter] = entry.getValue()
-						/ totalAmountOfMeasurementsPerIssue;
-				counter++;
+				issueValueCounts.add(entry.getValue()
+						/ totalAmountOfMeasurementsPerIssue);
 			}
 
-			issueVariances.put(e.getKey(),
-					Statistics.getVariance(issueValueCounts));
+			issueVariances.put(e.getKey(), issueValueCounts.getVariance());
 
 		}
 
@@ -160,61 +360,139 @@ public class OpponentUtilityModel {
 		double extraFreeVariancePointsPerIssue = amountOfRoomLeftToMakeVarancesSumUpToOne
 				/ issueVariances.size();
 
+		double change = 0;
 		for (Entry<IssueDiscrete, Double> e : issueVariances.entrySet()) {
 			double weight = e.getValue() + extraFreeVariancePointsPerIssue;
+			change += Math.abs(weight - issueWeights.get(e.getKey()));
 			issueWeights.put(e.getKey(), weight);
 		}
+		indexWeights();
+		addWeightChange(change);
+	}
+
+	/**
+	 * Add the change of the latest weight update to the sliding window, and
+	 * mark the modeled utilities as changed
+	 * 
+	 * @param change
+	 *            the sum of absolute changes of all issue weights
+	 */
+	protected void addWeightChange(double change) {
+		version++;
+
+		// Weights sum up to one, so they can change by at most 2 in total
+		if (Double.isNaN(change) || Double.isInfinite(change))
+			change = 2;
+
+		int slot = weightUpdates % convergenceWindow;
+		weightChangeSum += change - weightChanges[slot];
+		weightChanges[slot] = change;
+		weightUpdates++;
+	}
+
+	/**
+	 * Get how much the issue weights changed recently
+	 * 
+	 * @return the mean total change of the issue weights per update over the
+	 *         last updates, or NaN if there were not enough updates yet
+	 */
+	public double getWeightChange() {
+		if (weightUpdates < convergenceWindow)
+			return Double.NaN;
+		return weightChangeSum / convergenceWindow;
+	}
+
+	/**
+	 * Determine whether the model has stabilized
+	 * 
+	 * @param threshold
+	 *            the maximum mean change in issue weights per update
+	 * @return true iff the weights changed less than the threshold over the
+	 *         last updates
+	 */
+	public boolean hasConverged(double threshold) {
+		return getWeightChange() < threshold;
+	}
+
+	/**
+	 * @return the amount of offers made by this opponent in this session
+	 */
+	public int getNumberOfOffers() {
+		return allBids.getSize();
+	}
+
+	/**
+	 * @return the last offer made by this opponent, or null if there is none
+	 */
+	public Bid getLastOffer() {
+		return allBids.getLastBid();
+	}
+
+	/**
+	 * @return the version of the model, which changes every time the modeled
+	 *         utilities change
+	 */
+	public int getVersion() {
+		return version;
 	}
 
 	/**
 	 * Determine the utility for a bid based on the modeled opponent
 	 * @param b the input bid
-	 * @return the utility for the input bid for this opponent model
-	 * @throws InvalidBidException
+	 * @return the utility for the input bid for this opponent model, or NaN
+	 *         if nothing is known yet or the bid is not valid
 	 */
-	public double getUtility(Bid b) throws InvalidBidException {
+	public double getUtility(Bid b) {
+		HashMap<Integer, Value> values = b.getValues();
 		double utility = 0;
-		for (Issue i : b.getIssues()) {
-			switch (i.getType()) {
-			case DISCRETE:
-				IssueDiscrete id = (IssueDiscrete) i;
-				utility += issueWeights.get(id) * getIssueEvaluation(id, b);
-				break;
-			default:
-				throw new InvalidBidException(i.getType());
-			}
-		}
-
+		for (int i = 0; i < issues.length; i++)
+			utility += weights[i]
+					* getIssueEvaluation(i, values.get(issues[i].getNumber()));
 		return utility;
 	}
 
 	/**
-	 * Get the valuation of issue in a certain bid, based on the opponent model
-	 * @param i
-	 * @param b
-	 * @return
-	 * @throws InvalidBidException
+	 * Take a snapshot of the modeled utilities as weighted evaluations per
+	 * issue, for a {@link UtilityEvaluator}
+	 * 
+	 * @param encoder
+	 *            encoder of the domain of this model
+	 * @return the weighted evaluation per value index per issue, in encoding
+	 *         order, or null if the model can not be expressed this way
 	 */
-	private double getIssueEvaluation(IssueDiscrete i, Bid b)
-			throws InvalidBidException {
-		try {
-			Value v = b.getValue(i.getNumber());
-			switch (v.getType()) {
-			case DISCRETE:
-				ValueDiscrete vd = (ValueDiscrete) v;
-				HashMap<ValueDiscrete, Integer> valueCount = valueCounts.get(i);
-				double max = getMaxValue(valueCount);
-				return valueCount.get(vd) / max;
-			default:
-				throw new InvalidBidException(v.getType());
+	public double[][] getWeightedEvaluations(BidEncoder encoder) {
+		IssueDiscrete[] issues = encoder.getIssues();
+		double[][] result = new double[issues.length][];
+		for (int i = 0; i < issues.length; i++) {
+			Double weight = issueWeights.get(issues[i]);
+			HashMap<ValueDiscrete, Double> valueCount = valueCounts
+					.get(issues[i]);
+			if (weight == null || valueCount == null)
+				return null;
+
+			double max = getMaxValue(valueCount);
+			result[i] = new double[issues[i].getNumberOfValues()];
+			for (int j = 0; j < result[i].length; j++) {
+				Double count = valueCount.get(issues[i].getValue(j));
+				if (count == null)
+					return null;
+				result[i][j] = weight * (count / max);
 			}
-		} catch (Exception e) {
-			if (e instanceof InvalidBidException)
-				throw (InvalidBidException) e;
-			else
-				e.printStackTrace();
-			return 0;
 		}
+		return result;
+	}
+
+	/**
+	 * Get the valuation of the value of an issue, based on the opponent model
+	 * @param issue position of the issue
+	 * @param v
+	 * @return the count of the value relative to the most offered value
+	 */
+	private double getIssueEvaluation(int issue, Value v) {
+		Double count = issueCounts[issue].get(v);
+		if (count == null)
+			return Double.NaN;
+		return count / maxCounts[issue];
 	}
 
 	/**
@@ -222,13 +500,108 @@ public class OpponentUtilityModel {
 	 * @param counts
 	 * @return
 	 */
-	private double getMaxValue(HashMap<ValueDiscrete, Integer> counts) {
+	private double getMaxValue(HashMap<ValueDiscrete, Double> counts) {
 		double max = 0;
-		for (Entry<ValueDiscrete, Integer> e : counts.entrySet())
+		for (Entry<ValueDiscrete, Double> e : counts.entrySet())
 			max = Math.max(max, e.getValue());
 		return max;
 	}
 
+	/**
+	 * @return the amount of offers observed in earlier sessions that this
+	 *         model was warm started with
+	 */
+	public int getPriorObservations() {
+		return priorObservations;
+	}
+
+	/**
+	 * Count offers observed in earlier sessions, and mark the modeled
+	 * utilities as changed
+	 * 
+	 * @param observations
+	 */
+	protected void addPriorObservations(int observations) {
+		priorObservations += observations;
+		version++;
+	}
+
+	/**
+	 * Write the learned value counts and issue weights
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		// Counts are written in the scale of a single new observation
+		out.writeDouble(offerWeight / observationWeight);
+		out.writeInt(valueCounts.size());
+		for (Entry<IssueDiscrete, HashMap<ValueDiscrete, Double>> e : valueCounts
+				.entrySet()) {
+			out.writeInt(e.getKey().getNumber());
+			out.writeDouble(issueWeights.get(e.getKey()));
+			out.writeInt(e.getValue().size());
+			for (Entry<ValueDiscrete, Double> v : e.getValue().entrySet()) {
+				out.writeUTF(v.getKey().getValue());
+				out.writeDouble(v.getValue() / observationWeight);
+			}
+		}
+	}
+
+	/**
+	 * Warm start the model with counts and weights learned in an earlier
+	 * session, written by {@link #writeTo(DataOutputStream)}. Issues and
+	 * values that are not in this domain are skipped.
+	 * 
+	 * @param in
+	 * @param maxObservations
+	 *            the counts are scaled down so they weigh as at most this
+	 *            amount of offers, so the model can still adapt to this session
+	 * @throws IOException
+	 */
+	public void readFrom(DataInputStream in, int maxObservations)
+			throws IOException {
+		HashMap<Integer, IssueDiscrete> issuesByNumber = new HashMap<Integer, IssueDiscrete>();
+		for (IssueDiscrete i : valueCounts.keySet())
+			issuesByNumber.put(i.getNumber(), i);
+
+		double observations = in.readDouble();
+		double scale = observations > maxObservations ? (double) maxObservations
+				/ observations
+				: 1;
+
+		int numberOfIssues = in.readInt();
+		for (int i = 0; i < numberOfIssues; i++) {
+			IssueDiscrete issue = issuesByNumber.get(in.readInt());
+			double weight = in.readDouble();
+			if (issue != null)
+				issueWeights.put(issue, weight);
+
+			int numberOfValues = in.readInt();
+			for (int j = 0; j < numberOfValues; j++) {
+				String value = in.readUTF();
+				double count = in.readDouble();
+				if (issue == null)
+					continue;
+				HashMap<ValueDiscrete, Double> valueCount = valueCounts
+						.get(issue);
+				ValueDiscrete vd = new ValueDiscrete(value);
+				if (valueCount.containsKey(vd))
+					valueCount.put(vd, valueCount.get(vd) + count * scale
+							* observationWeight);
+			}
+		}
+
+		for (int i = 0; i < issues.length; i++)
+			maxCounts[i] = getMaxValue(issueCounts[i]);
+		indexWeights();
+		addPriorObservations((int) Math.round(observations * scale));
+		offerWeight += observations * scale * observationWeight;
+		// The stored weights belong to the stored counts only, so they are
+		// recomputed from the counts this model now has
+		updateWeights();
+	}
+
 	class InvalidDomainException extends Exception {
 		private static final long serialVersionUID = -6947113453964713361L;
 
@@ -245,6 +618,10 @@ public class OpponentUtilityModel {
 			super("Bids with issues of type " + issueType
 					+ " are not supported!");
 		}
+
+		public InvalidBidException(Bid b) {
+			super("Bid " + b + " does not belong to the domain!");
+		}
 	}
 	
 	public String toString() {
@@ -252,7 +629,7 @@ public class OpponentUtilityModel {
 		for(Entry<IssueDiscrete, Double> e : issueWeights.entrySet()) {
 			IssueDiscrete issue = e.getKey();
 			result += issue + " (" + ((double) Math.round(e.getValue() * 1000) / 1000) + ") : ";
-			for(Entry<ValueDiscrete, Integer> e2 : valueCounts.get(issue).entrySet()) {
+			for(Entry<ValueDiscrete, Double> e2 : valueCounts.get(issue).entrySet()) {
 				result += "<\"" + e2.getKey() + "\", " + e2.getValue() + "> ";
 			}
 			result += "\n";
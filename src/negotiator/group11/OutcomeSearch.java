@@ -0,0 +1,34 @@
+package negotiator.group11;
+
+import java.util.Random;
+
+import negotiator.bidding.BidDetails;
+
+/**
+ * Looks up bids on their own utility, either in an enumerated outcome space
+ * ({@link UtilityBandIndex}) or by searching the domain ({@link LazyBidSearch}).
+ */
+public abstract class OutcomeSearch {
+
+	/**
+	 * Get the bid with the utility closest to the given utility
+	 *
+	 * @param utility
+	 * @return the nearest bid, or null if there are no bids
+	 */
+	public abstract BidDetails getBidNearUtility(double utility);
+
+	/**
+	 * Get a random bid with a utility in [lowerbound, upperbound]
+	 *
+	 * @return a random bid, or null when there are no bids in the range
+	 */
+	public abstract BidDetails getRandomBidInRange(double lowerbound,
+			double upperbound, Random random);
+
+	/**
+	 * @return the bid with the highest own utility, or null if there are no
+	 *         bids
+	 */
+	public abstract BidDetails getMaxBid();
+}
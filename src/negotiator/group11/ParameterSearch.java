@@ -0,0 +1,303 @@
+package negotiator.group11;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches for good {@link Group11Config}s by running headless sessions in
+ * parallel over the bundled scenarios.
+ *
+ * Every candidate configuration plays as one of the parties against default
+ * agents, over a fixed schedule of sessions (scenario, profiles, round
+ * deadline and seed), so all candidates are compared on the same sessions.
+ * The score of a candidate is its mean utility, counting a session without
+ * agreement as 0.
+ *
+ * Candidates can be generated as a grid or at random, and evaluated either
+ * all on the same amount of sessions or with successive halving, where after
+ * every rung only the best part of the candidates is evaluated further on
+ * more sessions.
+ *
+ * Usage: ParameterSearch grid|random|halving [candidates] [threads]
+ */
+public class ParameterSearch {
+
+	private static final int PARTIES = 3;
+
+	/**
+	 * The values to search for a single parameter of the config
+	 */
+	public static class ParameterRange {
+		final String name;
+		final double min;
+		final double max;
+		final int steps;
+
+		/**
+		 * @param name
+		 *            name of the parameter in the config
+		 * @param min
+		 * @param max
+		 * @param steps
+		 *            the amount of values in a grid search
+		 */
+		public ParameterRange(String name, double min, double max, int steps) {
+			this.name = name;
+			this.min = min;
+			this.max = max;
+			this.steps = steps;
+		}
+
+		double getGridValue(int step) {
+			return steps <= 1 ? min : min + (max - min) * step / (steps - 1);
+		}
+
+		double getRandomValue(Random random) {
+			return min + (max - min) * random.nextDouble();
+		}
+	}
+
+	/**
+	 * A configuration with the results of the sessions it played so far
+	 */
+	public static class Candidate {
+		final Group11Config config;
+		final StreamingStatistics utility = new StreamingStatistics();
+		int agreements;
+
+		Candidate(Group11Config config) {
+			this.config = config;
+		}
+
+		public double getScore() {
+			return utility.getCount() == 0 ? 0 : utility.getMean();
+		}
+
+		public Group11Config getConfig() {
+			return config;
+		}
+
+		public String toString() {
+			return String.format("score=%.4f sd=%.4f sessions=%d agreements=%d %s",
+					getScore(), utility.getStdDev(), utility.getCount(),
+					agreements, config);
+		}
+	}
+
+	private final List<ParameterRange> ranges;
+	private final List<Scenario> scenarios;
+	private final int[] roundDeadlines;
+	private final ExecutorService executor;
+
+	public ParameterSearch(List<ParameterRange> ranges,
+			List<Scenario> scenarios, int[] roundDeadlines, int threads) {
+		this.ranges = ranges;
+		this.scenarios = scenarios;
+		this.roundDeadlines = roundDeadlines;
+		this.executor = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * @return all combinations of the grid values of the ranges
+	 */
+	public List<Group11Config> getGridCandidates() {
+		List<Group11Config> result = new ArrayList<Group11Config>();
+		result.add(new Group11Config());
+		for (ParameterRange r : ranges) {
+			List<Group11Config> next = new ArrayList<Group11Config>();
+			for (Group11Config c : result)
+				for (int step = 0; step < r.steps; step++)
+					next.add(new Group11Config(c).set(r.name,
+							r.getGridValue(step)));
+			result = next;
+		}
+		return result;
+	}
+
+	/**
+	 * @return configurations with uniformly drawn values of the ranges
+	 */
+	public List<Group11Config> getRandomCandidates(int count, long seed) {
+		Random random = new Random(seed);
+		List<Group11Config> result = new ArrayList<Group11Config>();
+		for (int i = 0; i < count; i++) {
+			Group11Config c = new Group11Config();
+			for (ParameterRange r : ranges)
+				c.set(r.name, r.getRandomValue(random));
+			result.add(c);
+		}
+		return result;
+	}
+
+	/**
+	 * Evaluate every configuration on the same sessions
+	 *
+	 * @return the candidates, best first
+	 */
+	public List<Candidate> evaluate(List<Group11Config> configs, int sessions)
+			throws Exception {
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		for (Group11Config c : configs)
+			candidates.add(new Candidate(c));
+		runSessions(candidates, sessions);
+		sortOnScore(candidates);
+		return candidates;
+	}
+
+	/**
+	 * Evaluate configurations with successive halving. All candidates start
+	 * with a few sessions; after each rung only the best 1/eta of them
+	 * continue, with eta times as many sessions.
+	 *
+	 * @param configs
+	 * @param initialSessions
+	 *            the amount of sessions in the first rung
+	 * @param eta
+	 *            the reduction factor per rung, at least 2
+	 * @return the candidates of the last rung, best first
+	 */
+	public List<Candidate> successiveHalving(List<Group11Config> configs,
+			int initialSessions, int eta) throws Exception {
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		for (Group11Config c : configs)
+			candidates.add(new Candidate(c));
+
+		int sessions = initialSessions;
+		while (true) {
+			runSessions(candidates, sessions);
+			sortOnScore(candidates);
+			System.out.println("Rung with " + candidates.size()
+					+ " candidates and " + sessions + " sessions, best: "
+					+ candidates.get(0));
+
+			if (candidates.size() <= 1)
+				return candidates;
+			candidates = new ArrayList<Candidate>(candidates.subList(0,
+					Math.max(1, candidates.size() / eta)));
+			sessions *= eta;
+		}
+	}
+
+	/**
+	 * Run the sessions of the schedule that the candidates did not play yet,
+	 * up to the given amount, all in parallel
+	 */
+	private void runSessions(List<Candidate> candidates, int sessions)
+			throws Exception {
+		List<Future<HeadlessSession.SessionResult>> futures = new ArrayList<Future<HeadlessSession.SessionResult>>();
+		List<Candidate> owners = new ArrayList<Candidate>();
+		List<Integer> positions = new ArrayList<Integer>();
+
+		for (final Candidate c : candidates) {
+			for (int s = (int) c.utility.getCount(); s < sessions; s++) {
+				final int session = s;
+				futures.add(executor
+						.submit(new Callable<HeadlessSession.SessionResult>() {
+							@Override
+							public HeadlessSession.SessionResult call()
+									throws Exception {
+								return runSession(c.config, session);
+							}
+						}));
+				owners.add(c);
+				positions.add(session % PARTIES);
+			}
+		}
+
+		for (int i = 0; i < futures.size(); i++) {
+			HeadlessSession.SessionResult r = futures.get(i).get();
+			Candidate c = owners.get(i);
+			c.utility.add(r.utilities[positions.get(i)]);
+			if (r.hasAgreement())
+				c.agreements++;
+		}
+	}
+
+	/**
+	 * Run a session of the schedule, where the candidate takes the turn
+	 * position session % PARTIES and the other parties use the defaults
+	 */
+	private HeadlessSession.SessionResult runSession(Group11Config config,
+			int session) throws Exception {
+		Scenario scenario = scenarios.get(session % scenarios.size());
+		int deadline = roundDeadlines[(session / scenarios.size())
+				% roundDeadlines.length];
+		int offset = session / (scenarios.size() * roundDeadlines.length);
+
+		int[] profiles = new int[PARTIES];
+		for (int p = 0; p < PARTIES; p++)
+			profiles[p] = offset + p;
+		Group11Config[] configs = new Group11Config[PARTIES];
+		configs[session % PARTIES] = config;
+
+		return new SessionSpec(session, scenario.getName(), profiles,
+				deadline, session, configs).run(scenarios);
+	}
+
+	private static void sortOnScore(List<Candidate> candidates) {
+		Collections.sort(candidates, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate l, Candidate r) {
+				return Double.compare(r.getScore(), l.getScore());
+			}
+		});
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * The parameters that were tuned by hand for the second report
+	 */
+	public static List<ParameterRange> getDefaultRanges() {
+		List<ParameterRange> ranges = new ArrayList<ParameterRange>();
+		ranges.add(new ParameterRange("timeToStartGiveIn", 0.8, 0.95, 4));
+		ranges.add(new ParameterRange("acceptedReservationMultiplier", 0.8,
+				0.95, 4));
+		ranges.add(new ParameterRange("giveInFactor", 0.95, 0.99, 3));
+		ranges.add(new ParameterRange("numberOfRoundsForOpponentModel", 10,
+				50, 3));
+		return ranges;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String mode = args.length > 0 ? args[0] : "halving";
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+
+		List<Scenario> scenarios = Scenario.loadAll(new File(
+				Scenario.DEFAULT_TEMPLATE_DIRECTORY));
+		ParameterSearch search = new ParameterSearch(getDefaultRanges(),
+				scenarios, new int[] { 18, 180 }, threads);
+
+		try {
+			List<Candidate> result;
+			if (mode.equals("grid")) {
+				result = search.evaluate(search.getGridCandidates(),
+						scenarios.size() * 2);
+			} else if (mode.equals("random")) {
+				result = search.evaluate(search.getRandomCandidates(count, 0),
+						scenarios.size() * 2);
+			} else {
+				result = search.successiveHalving(
+						search.getRandomCandidates(count, 0), scenarios.size(),
+						2);
+			}
+
+			for (int i = 0; i < Math.min(10, result.size()); i++)
+				System.out.println((i + 1) + ". " + result.get(i));
+		} finally {
+			search.shutdown();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package negotiator.group11;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import negotiator.Bid;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * The Pareto optimal outcomes and the Nash solution of a multilateral
+ * negotiation, to measure how good an outcome is for all parties together.
+ *
+ * The frontier is found by enumerating the whole outcome space, so it is only
+ * meant for domains of the size of the bundled scenarios.
+ */
+public class ParetoFrontier {
+
+	/** Utility vectors of the Pareto optimal outcomes */
+	private final List<double[]> frontier = new ArrayList<double[]>();
+	/** Utility vector of the outcome with the highest product of utilities */
+	private double[] nashPoint;
+
+	/**
+	 * @param utilitySpaces
+	 *            utility space per party, all of the same discrete domain
+	 */
+	public ParetoFrontier(List<UtilitySpace> utilitySpaces) {
+		BidEncoder encoder = new BidEncoder(utilitySpaces.get(0).getDomain());
+		double bestProduct = -1;
+		for (long code = 0; code < encoder.getSize(); code++) {
+			Bid b = encoder.decode(code);
+			double[] point = new double[utilitySpaces.size()];
+			double product = 1;
+			for (int p = 0; p < point.length; p++) {
+				point[p] = getUtility(utilitySpaces.get(p), b);
+				product *= point[p];
+			}
+			if (product > bestProduct) {
+				bestProduct = product;
+				nashPoint = point;
+			}
+			add(point);
+		}
+	}
+
+	private static double getUtility(UtilitySpace utilitySpace, Bid b) {
+		try {
+			return utilitySpace.getUtility(b);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	/**
+	 * Add a point to the frontier if no point dominates it, removing the
+	 * points it dominates
+	 */
+	private void add(double[] point) {
+		for (int i = frontier.size() - 1; i >= 0; i--) {
+			double[] other = frontier.get(i);
+			if (dominates(other, point))
+				return;
+			if (dominates(point, other))
+				frontier.remove(i);
+		}
+		frontier.add(point);
+	}
+
+	/**
+	 * @return true iff a is at least as good as b for everyone and a differs
+	 *         from b
+	 */
+	private static boolean dominates(double[] a, double[] b) {
+		boolean better = false;
+		for (int p = 0; p < a.length; p++) {
+			if (a[p] < b[p])
+				return false;
+			if (a[p] > b[p])
+				better = true;
+		}
+		return better;
+	}
+
+	/**
+	 * @param utilities
+	 *            utility per party of an outcome
+	 * @return the Euclidean distance to the nearest Pareto optimal outcome
+	 */
+	public double getParetoDistance(double[] utilities) {
+		double best = Double.POSITIVE_INFINITY;
+		for (double[] point : frontier)
+			best = Math.min(best, getDistance(point, utilities));
+		return best;
+	}
+
+	/**
+	 * @param utilities
+	 *            utility per party of an outcome
+	 * @return the Euclidean distance to the Nash solution
+	 */
+	public double getNashDistance(double[] utilities) {
+		return getDistance(nashPoint, utilities);
+	}
+
+	/**
+	 * @return the distance of the frontier to the outcome that is ideal for
+	 *         everyone, divided by the largest possible distance: 0 when all
+	 *         parties can get everything they want, higher the more their
+	 *         interests oppose
+	 */
+	public double getOpposition() {
+		double[] ideal = new double[nashPoint.length];
+		Arrays.fill(ideal, 1);
+		double best = Double.POSITIVE_INFINITY;
+		for (double[] point : frontier)
+			best = Math.min(best, getDistance(point, ideal));
+		return best / Math.sqrt(ideal.length);
+	}
+
+	public int size() {
+		return frontier.size();
+	}
+
+	private static double getDistance(double[] a, double[] b) {
+		double sum = 0;
+		for (int p = 0; p < a.length; p++)
+			sum += (a[p] - b[p]) * (a[p] - b[p]);
+		return Math.sqrt(sum);
+	}
+}
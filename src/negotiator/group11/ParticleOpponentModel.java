@@ -0,0 +1,458 @@
+package negotiator.group11;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import negotiator.Bid;
+import negotiator.Domain;
+import negotiator.issue.ISSUETYPE;
+import negotiator.issue.Issue;
+import negotiator.issue.IssueDiscrete;
+import negotiator.issue.Value;
+
+/**
+ * A Bayesian opponent model that keeps a population of hypotheses about the
+ * preferences of the opponent, instead of estimating them from how often
+ * values are offered.
+ *
+ * A hypothesis, or particle, is a vector of issue weights and a ranking of
+ * the values of every issue, where the value at rank r of k gets evaluation
+ * (r + 1) / k. The opponent is assumed to offer bids near a target utility
+ * that decreases with every offer, and to accept bids above it. Every
+ * observed bid multiplies the probability of each particle with the
+ * likelihood of the bid under that particle. When few particles carry most
+ * of the probability, the population is resampled in place and perturbed
+ * slightly, so it keeps exploring hypotheses near the likely ones.
+ *
+ * All particles are stored in flat arrays, so an update is one pass over the
+ * weights and evaluations without allocations. The modeled utility is the
+ * expected utility over all particles.
+ */
+public class ParticleOpponentModel extends OpponentUtilityModel {
+
+	/** Standard deviation of the opponent's utility around its target */
+	private static final double sigma = 0.15;
+	/** Decrease of the target utility of the opponent per offer */
+	private static final double concessionPerOffer = 0.01;
+	/** Lowest target utility of the opponent */
+	private static final double minTarget = 0.5;
+	/** Standard deviation of the noise added to the weights on resampling */
+	private static final double weightJitter = 0.02;
+	/** Probability that a resampled particle swaps two ranked values */
+	private static final double swapProbability = 0.2;
+
+	private final IssueDiscrete[] issues;
+	/** Index of every value of an issue */
+	private final HashMap<Value, Integer>[] valueIndices;
+	/** Position of the first value of every issue in a row of evaluations */
+	private final int[] offsets;
+	/** Total amount of values over all issues */
+	private final int values;
+	private final int particles;
+
+	/** Issue weights, a row of issues.length per particle */
+	private double[] weights;
+	/** Value evaluations, a row of values per particle */
+	private double[] evaluations;
+	/** Buffers the rows are copied to while resampling */
+	private double[] resampledWeights;
+	private double[] resampledEvaluations;
+	/** Log of the unnormalized probability of every particle */
+	private final double[] logLikelihoods;
+	private final double[] probabilities;
+
+	/** Expected weight of every issue */
+	private final double[] meanWeights;
+	/** Expected weighted evaluation of every value, in the row layout */
+	private final double[] meanEvaluations;
+	/** Value positions of the bid that is being observed */
+	private final int[] bidOffsets;
+
+	private final Random random;
+	/** Amount of bids observed, which determines the target utility */
+	private int observations;
+
+	/**
+	 * @param d
+	 *            a domain with only discrete issues
+	 * @param particles
+	 *            the amount of hypotheses; more give a better estimate but
+	 *            take more time per update
+	 * @param randomSeed
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ParticleOpponentModel(Domain d, int particles, long randomSeed) {
+		if (particles <= 0)
+			throw new IllegalArgumentException(
+					"Need at least one particle");
+		this.particles = particles;
+		this.random = new Random(randomSeed);
+
+		List<Issue> domainIssues = d.getIssues();
+		int n = domainIssues.size();
+		issues = new IssueDiscrete[n];
+		valueIndices = new HashMap[n];
+		offsets = new int[n];
+		int total = 0;
+		for (int i = 0; i < n; i++) {
+			Issue issue = domainIssues.get(i);
+			if (issue.getType() != ISSUETYPE.DISCRETE)
+				throw new IllegalArgumentException("Issues of type "
+						+ issue.getType() + " are not supported");
+			issues[i] = (IssueDiscrete) issue;
+			valueIndices[i] = new HashMap<Value, Integer>();
+			for (int j = 0; j < issues[i].getNumberOfValues(); j++)
+				valueIndices[i].put(issues[i].getValue(j), j);
+			offsets[i] = total;
+			total += issues[i].getNumberOfValues();
+		}
+		values = total;
+
+		weights = new double[particles * n];
+		evaluations = new double[particles * values];
+		resampledWeights = new double[weights.length];
+		resampledEvaluations = new double[evaluations.length];
+		logLikelihoods = new double[particles];
+		probabilities = new double[particles];
+		meanWeights = new double[n];
+		meanEvaluations = new double[values];
+		bidOffsets = new int[n];
+
+		for (int p = 0; p < particles; p++) {
+			initializeParticle(p);
+			probabilities[p] = 1.0 / particles;
+		}
+		computeMeans();
+	}
+
+	/**
+	 * @param d
+	 * @return true iff the domain only has discrete issues, so the model can
+	 *         be used for it
+	 */
+	public static boolean supports(Domain d) {
+		for (Issue i : d.getIssues())
+			if (i.getType() != ISSUETYPE.DISCRETE)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Draw uniformly random weights and a random ranking of every issue
+	 */
+	private void initializeParticle(int p) {
+		int row = p * issues.length;
+		double sum = 0;
+		for (int i = 0; i < issues.length; i++) {
+			// Normalized exponentials are uniform over all weight vectors
+			weights[row + i] = -Math.log(1 - random.nextDouble());
+			sum += weights[row + i];
+		}
+		for (int i = 0; i < issues.length; i++)
+			weights[row + i] /= sum;
+
+		for (int i = 0; i < issues.length; i++) {
+			int k = issues[i].getNumberOfValues();
+			int start = p * values + offsets[i];
+			for (int j = 0; j < k; j++)
+				evaluations[start + j] = (j + 1.0) / k;
+			// Fisher-Yates shuffle of the ranks
+			for (int j = k - 1; j > 0; j--)
+				swap(evaluations, start + j, start + random.nextInt(j + 1));
+		}
+	}
+
+	private static void swap(double[] a, int i, int j) {
+		double t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
+	@Override
+	public boolean isValid(Bid b) {
+		if (b == null)
+			return false;
+		HashMap<Integer, Value> bidValues = b.getValues();
+		for (int i = 0; i < issues.length; i++)
+			if (!valueIndices[i].containsKey(bidValues.get(issues[i]
+					.getNumber())))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Store the position of every value of a valid bid in bidOffsets
+	 */
+	private void setBidOffsets(Bid b) {
+		HashMap<Integer, Value> bidValues = b.getValues();
+		for (int i = 0; i < issues.length; i++)
+			bidOffsets[i] = offsets[i]
+					+ valueIndices[i].get(bidValues.get(issues[i].getNumber()));
+	}
+
+	@Override
+	public void addAccept(Bid acceptBid) throws InvalidBidException {
+		if (!isValid(acceptBid))
+			throw new InvalidBidException(acceptBid);
+		observe(acceptBid, true);
+	}
+
+	/**
+	 * Called by {@link #addOffer(Bid, Bid)} for every offered bid
+	 */
+	@Override
+	protected void updateCountersFromBid(Bid b) {
+		observe(b, false);
+	}
+
+	/**
+	 * Weigh every particle by the likelihood of the bid
+	 *
+	 * @param b
+	 *            a valid bid
+	 * @param accepted
+	 *            true if the bid was accepted, so it only has to be above the
+	 *            target instead of near it
+	 */
+	private void observe(Bid b, boolean accepted) {
+		setBidOffsets(b);
+		double target = Math.max(minTarget, 1 - concessionPerOffer
+				* observations);
+		double scale = 1 / (2 * sigma * sigma);
+		int n = issues.length;
+
+		for (int p = 0, w = 0, e = 0; p < particles; p++, w += n, e += values) {
+			double utility = 0;
+			for (int i = 0; i < n; i++)
+				utility += weights[w + i] * evaluations[e + bidOffsets[i]];
+			double difference = utility - target;
+			if (accepted && difference > 0)
+				difference = 0;
+			logLikelihoods[p] -= difference * difference * scale;
+		}
+		observations++;
+
+		normalize();
+		if (getEffectiveSampleSize() < particles / 2.0)
+			resample();
+		countersChanged();
+	}
+
+	/**
+	 * Compute the probabilities from the log likelihoods
+	 */
+	private void normalize() {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int p = 0; p < particles; p++)
+			max = Math.max(max, logLikelihoods[p]);
+		double sum = 0;
+		for (int p = 0; p < particles; p++) {
+			probabilities[p] = Math.exp(logLikelihoods[p] - max);
+			sum += probabilities[p];
+		}
+		for (int p = 0; p < particles; p++)
+			probabilities[p] /= sum;
+	}
+
+	private double getEffectiveSampleSize() {
+		double sum = 0;
+		for (int p = 0; p < particles; p++)
+			sum += probabilities[p] * probabilities[p];
+		return 1 / sum;
+	}
+
+	/**
+	 * Draw a new population from the current one with systematic resampling,
+	 * and perturb every drawn particle
+	 */
+	private void resample() {
+		int n = issues.length;
+		double step = 1.0 / particles;
+		double position = random.nextDouble() * step;
+		double cumulative = probabilities[0];
+		int source = 0;
+		for (int p = 0; p < particles; p++) {
+			while (position > cumulative && source < particles - 1)
+				cumulative += probabilities[++source];
+			System.arraycopy(weights, source * n, resampledWeights, p * n, n);
+			System.arraycopy(evaluations, source * values,
+					resampledEvaluations, p * values, values);
+			position += step;
+		}
+
+		double[] t = weights;
+		weights = resampledWeights;
+		resampledWeights = t;
+		t = evaluations;
+		evaluations = resampledEvaluations;
+		resampledEvaluations = t;
+
+		for (int p = 0; p < particles; p++) {
+			perturb(p);
+			logLikelihoods[p] = 0;
+			probabilities[p] = step;
+		}
+	}
+
+	/**
+	 * Add noise to the weights of a particle, and sometimes swap the ranks of
+	 * two values of an issue
+	 */
+	private void perturb(int p) {
+		int row = p * issues.length;
+		double sum = 0;
+		for (int i = 0; i < issues.length; i++) {
+			double w = weights[row + i] + random.nextGaussian() * weightJitter;
+			weights[row + i] = Math.max(1e-6, w);
+			sum += weights[row + i];
+		}
+		for (int i = 0; i < issues.length; i++)
+			weights[row + i] /= sum;
+
+		if (random.nextDouble() < swapProbability) {
+			int i = random.nextInt(issues.length);
+			int k = issues[i].getNumberOfValues();
+			if (k > 1) {
+				int start = p * values + offsets[i];
+				swap(evaluations, start + random.nextInt(k),
+						start + random.nextInt(k));
+			}
+		}
+	}
+
+	/**
+	 * Recompute the expected weights and evaluations
+	 */
+	@Override
+	protected void updateWeights() {
+		addWeightChange(computeMeans());
+	}
+
+	/**
+	 * @return the sum of the absolute changes of the expected issue weights
+	 */
+	private double computeMeans() {
+		int n = issues.length;
+		double[] previous = meanWeights.clone();
+		Arrays.fill(meanWeights, 0);
+		Arrays.fill(meanEvaluations, 0);
+		for (int p = 0, w = 0, e = 0; p < particles; p++, w += n, e += values) {
+			double probability = probabilities[p];
+			for (int i = 0; i < n; i++) {
+				double weight = probability * weights[w + i];
+				meanWeights[i] += weight;
+				int end = i + 1 < n ? offsets[i + 1] : values;
+				for (int j = offsets[i]; j < end; j++)
+					meanEvaluations[j] += weight * evaluations[e + j];
+			}
+		}
+
+		double change = 0;
+		for (int i = 0; i < n; i++)
+			change += Math.abs(meanWeights[i] - previous[i]);
+		return change;
+	}
+
+	@Override
+	public double getUtility(Bid b) {
+		if (!isValid(b))
+			return Double.NaN;
+		setBidOffsets(b);
+		double utility = 0;
+		for (int i = 0; i < issues.length; i++)
+			utility += meanEvaluations[bidOffsets[i]];
+		return utility;
+	}
+
+	@Override
+	public double[][] getWeightedEvaluations(BidEncoder encoder) {
+		IssueDiscrete[] encoded = encoder.getIssues();
+		double[][] result = new double[encoded.length][];
+		for (int e = 0; e < encoded.length; e++) {
+			int i = getIssueIndex(encoded[e].getNumber());
+			if (i < 0 || encoded[e].getNumberOfValues() != issues[i]
+					.getNumberOfValues())
+				return null;
+			result[e] = new double[issues[i].getNumberOfValues()];
+			for (int j = 0; j < result[e].length; j++) {
+				Integer index = valueIndices[i].get(encoded[e].getValue(j));
+				if (index == null)
+					return null;
+				result[e][j] = meanEvaluations[offsets[i] + index];
+			}
+		}
+		return result;
+	}
+
+	private int getIssueIndex(int number) {
+		for (int i = 0; i < issues.length; i++)
+			if (issues[i].getNumber() == number)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Write the population, which only fits a model of the same domain and
+	 * particle count
+	 */
+	@Override
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(observations);
+		out.writeInt(particles);
+		out.writeInt(issues.length);
+		out.writeInt(values);
+		for (double w : weights)
+			out.writeDouble(w);
+		for (double e : evaluations)
+			out.writeDouble(e);
+		for (double p : probabilities)
+			out.writeDouble(p);
+	}
+
+	/**
+	 * Warm start the model with a population written by
+	 * {@link #writeTo(DataOutputStream)}. A population with another layout
+	 * is skipped.
+	 *
+	 * @param maxObservations
+	 *            the probabilities are flattened so they weigh as at most
+	 *            this amount of bids
+	 */
+	@Override
+	public void readFrom(DataInputStream in, int maxObservations)
+			throws IOException {
+		int observed = in.readInt();
+		int storedParticles = in.readInt();
+		int storedIssues = in.readInt();
+		int storedValues = in.readInt();
+		boolean fits = storedParticles == particles
+				&& storedIssues == issues.length && storedValues == values;
+		long length = (long) storedParticles * (storedIssues + storedValues + 1);
+		if (!fits) {
+			for (long i = 0; i < length; i++)
+				in.readDouble();
+			return;
+		}
+
+		for (int i = 0; i < weights.length; i++)
+			weights[i] = in.readDouble();
+		for (int i = 0; i < evaluations.length; i++)
+			evaluations[i] = in.readDouble();
+		double scale = observed > maxObservations ? (double) maxObservations
+				/ observed : 1;
+		for (int p = 0; p < particles; p++)
+			logLikelihoods[p] = scale
+					* Math.log(Math.max(Double.MIN_VALUE, in.readDouble()));
+		normalize();
+
+		int prior = (int) Math.round(observed * scale);
+		observations += prior;
+		addPriorObservations(prior);
+		updateWeights();
+	}
+}
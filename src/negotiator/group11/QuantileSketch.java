@@ -0,0 +1,140 @@
+package negotiator.group11;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate quantiles of a large stream of values in bounded memory.
+ *
+ * The sketch keeps a stack of compactors, as in the KLL sketch. Level l holds
+ * at most k values that each represent 2^l original values. When a level is
+ * full it is sorted and every other value (starting at a random offset) is
+ * promoted to the next level. Memory is O(k log(n/k)) and the rank error is
+ * roughly O(log(n/k) / k). Two sketches can be merged by compacting their
+ * levels together, so sketches can be built in parallel.
+ */
+public class QuantileSketch {
+
+	private final int k;
+	private final ArrayList<double[]> levels = new ArrayList<double[]>();
+	private int[] sizes = new int[0];
+	private final Random random;
+	private long count;
+
+	/**
+	 * @param k
+	 *            the amount of values kept per level; higher is more accurate
+	 */
+	public QuantileSketch(int k) {
+		this(k, 0);
+	}
+
+	public QuantileSketch(int k, long seed) {
+		if (k < 2)
+			throw new IllegalArgumentException("k should be at least 2");
+		this.k = k;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Add a value
+	 *
+	 * @param value
+	 */
+	public void add(double value) {
+		addToLevel(0, value);
+		count++;
+	}
+
+	/**
+	 * Add all values of another sketch to this one
+	 *
+	 * @param other
+	 */
+	public void merge(QuantileSketch other) {
+		for (int level = 0; level < other.levels.size(); level++) {
+			double[] buffer = other.levels.get(level);
+			for (int i = 0; i < other.sizes[level]; i++)
+				addToLevel(level, buffer[i]);
+		}
+		count += other.count;
+	}
+
+	/**
+	 * Get an approximate quantile
+	 *
+	 * @param q
+	 *            the quantile, between 0 and 1
+	 * @return the approximate value at quantile q, or NaN if the sketch is
+	 *         empty
+	 */
+	public double getQuantile(double q) {
+		int numberOfLevels = levels.size();
+		double[][] sorted = new double[numberOfLevels][];
+		long totalWeight = 0;
+		for (int level = 0; level < numberOfLevels; level++) {
+			sorted[level] = Arrays.copyOf(levels.get(level), sizes[level]);
+			Arrays.sort(sorted[level]);
+			totalWeight += (long) sizes[level] << level;
+		}
+		if (totalWeight == 0)
+			return Double.NaN;
+
+		// Merge the sorted levels until the target weight is reached
+		int[] heads = new int[numberOfLevels];
+		double target = q * totalWeight;
+		long cumulative = 0;
+		double value = Double.NaN;
+		while (true) {
+			int next = -1;
+			for (int level = 0; level < numberOfLevels; level++)
+				if (heads[level] < sorted[level].length
+						&& (next < 0 || sorted[level][heads[level]] < sorted[next][heads[next]]))
+					next = level;
+			if (next < 0)
+				return value;
+
+			value = sorted[next][heads[next]++];
+			cumulative += 1L << next;
+			if (cumulative >= target)
+				return value;
+		}
+	}
+
+	/**
+	 * @return the median, approximately
+	 */
+	public double getMedian() {
+		return getQuantile(0.5);
+	}
+
+	/**
+	 * @return the amount of values added
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	private void addToLevel(int level, double value) {
+		if (level == levels.size()) {
+			levels.add(new double[k]);
+			sizes = Arrays.copyOf(sizes, level + 1);
+		}
+		if (sizes[level] == k)
+			compact(level);
+		levels.get(level)[sizes[level]++] = value;
+	}
+
+	/**
+	 * Promote every other value of a full level to the next level
+	 */
+	private void compact(int level) {
+		double[] buffer = levels.get(level);
+		int size = sizes[level];
+		Arrays.sort(buffer, 0, size);
+		sizes[level] = 0;
+		for (int i = random.nextInt(2); i < size; i += 2)
+			addToLevel(level + 1, buffer[i]);
+	}
+}
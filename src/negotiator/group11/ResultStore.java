@@ -0,0 +1,390 @@
+package negotiator.group11;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import negotiator.Domain;
+
+/**
+ * Append-only store of the results of tournament sessions, so a campaign that
+ * is restarted after a crash only runs the sessions that did not complete.
+ *
+ * Every result is appended to results.log as a record of its length, a CRC32
+ * and the {@link SessionSpec#getKey() key}, spec and result of the session. The
+ * position of every record is appended to results.idx, so opening the store
+ * does not need to parse the whole log; it only checks the checksum of every
+ * indexed record. Both files are forced to disk every
+ * syncInterval records and when the store is closed.
+ *
+ * A crash can leave the last records unsynced or half written. When the
+ * store is opened, the log is scanned from the end of the last indexed
+ * record: complete records are indexed again, and a torn record at the end is
+ * cut off.
+ */
+public class ResultStore implements Closeable {
+
+	private static final int MAGIC = 0x47313152;
+	private static final short VERSION = 4;
+	/** Size of the header of both files */
+	private static final int headerSize = 6;
+	/** Amount of appended records between forcing the files to disk */
+	private static final int syncInterval = 16;
+
+	private final RandomAccessFile log;
+	private final RandomAccessFile index;
+	/** Position of the record of every key in the log */
+	private final Map<String, Long> positions = new LinkedHashMap<String, Long>();
+	private int unsynced;
+
+	/**
+	 * Open a store, creating it when the directory is empty
+	 *
+	 * @param directory
+	 * @throws IOException
+	 *             when the files can not be opened or are not a store
+	 */
+	public ResultStore(File directory) throws IOException {
+		directory.mkdirs();
+		log = new RandomAccessFile(new File(directory, "results.log"), "rw");
+		index = new RandomAccessFile(new File(directory, "results.idx"), "rw");
+		checkHeader(log);
+		checkHeader(index);
+		long end = readIndex();
+		recoverLog(end);
+	}
+
+	private static void checkHeader(RandomAccessFile file) throws IOException {
+		if (file.length() < headerSize) {
+			file.setLength(0);
+			file.writeInt(MAGIC);
+			file.writeShort(VERSION);
+			return;
+		}
+		file.seek(0);
+		if (file.readInt() != MAGIC)
+			throw new IOException("Not a result store");
+		short version = file.readShort();
+		if (version != VERSION)
+			throw new IOException("Unsupported result store version "
+					+ version);
+	}
+
+	/**
+	 * Read all index entries of complete records, and cut off the entries
+	 * from the first torn one
+	 *
+	 * @return the end of the last indexed record in the log
+	 */
+	private long readIndex() throws IOException {
+		long end = headerSize;
+		index.seek(headerSize);
+		long valid = headerSize;
+		while (true) {
+			try {
+				String key = index.readUTF();
+				long position = index.readLong();
+				if (!isComplete(position))
+					break;
+				log.seek(position);
+				long recordEnd = position + 8 + log.readInt();
+				positions.put(key, position);
+				end = Math.max(end, recordEnd);
+				valid = index.getFilePointer();
+			} catch (EOFException e) {
+				break;
+			}
+		}
+		index.setLength(valid);
+		return end;
+	}
+
+	/**
+	 * Index the complete records after the given position, and cut off a torn
+	 * record at the end of the log
+	 */
+	private void recoverLog(long position) throws IOException {
+		while (isComplete(position)) {
+			log.seek(position);
+			int length = log.readInt();
+			log.readInt();
+			byte[] payload = new byte[length];
+			log.readFully(payload);
+
+			String key = new DataInputStream(new ByteArrayInputStream(payload))
+					.readUTF();
+			addToIndex(key, position);
+			position += 8 + length;
+		}
+		log.setLength(position);
+		sync();
+	}
+
+	/**
+	 * @return true iff a whole record starts at the position, of which the
+	 *         payload matches its checksum
+	 */
+	private boolean isComplete(long position) throws IOException {
+		if (position < headerSize || position + 8 > log.length())
+			return false;
+		log.seek(position);
+		int length = log.readInt();
+		int checksum = log.readInt();
+		if (length < 0 || position + 8 + length > log.length())
+			return false;
+		byte[] payload = new byte[length];
+		log.readFully(payload);
+		return getChecksum(payload) == checksum;
+	}
+
+	private static int getChecksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	private void addToIndex(String key, long position) throws IOException {
+		index.seek(index.length());
+		index.writeUTF(key);
+		index.writeLong(position);
+		positions.put(key, position);
+	}
+
+	/**
+	 * @return true iff the result of the session is in the store
+	 */
+	public synchronized boolean contains(SessionSpec spec) {
+		return positions.containsKey(spec.getKey());
+	}
+
+	/**
+	 * @return the keys of all stored sessions, in the order they were added
+	 */
+	public synchronized Set<String> getKeys() {
+		return new LinkedHashSet<String>(positions.keySet());
+	}
+
+	/**
+	 * Append the result of a session. A later result of the same session
+	 * replaces the earlier one.
+	 *
+	 * @param spec
+	 * @param result
+	 * @param domain
+	 *            the domain of the session, to encode the agreement
+	 * @throws IOException
+	 */
+	public synchronized void add(SessionSpec spec,
+			HeadlessSession.SessionResult result, Domain domain)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(spec.getKey());
+		spec.writeTo(out);
+		result.writeTo(out, domain);
+		out.flush();
+		byte[] payload = bytes.toByteArray();
+
+		long position = log.length();
+		log.seek(position);
+		log.writeInt(payload.length);
+		log.writeInt(getChecksum(payload));
+		log.write(payload);
+		addToIndex(spec.getKey(), position);
+
+		if (++unsynced >= syncInterval)
+			sync();
+	}
+
+	/**
+	 * Read the result of a session
+	 *
+	 * @param key
+	 *            the {@link SessionSpec#getKey() key} of the session
+	 * @param domain
+	 *            the domain of the session, to decode the agreement
+	 * @return the result, or null if the session is not in the store
+	 * @throws IOException
+	 */
+	public synchronized HeadlessSession.SessionResult get(String key,
+			Domain domain) throws IOException {
+		Long position = positions.get(key);
+		if (position == null)
+			return null;
+		DataInputStream in = readRecord(position);
+		SessionSpec.readFrom(in);
+		return HeadlessSession.SessionResult.readFrom(in, domain);
+	}
+
+	/**
+	 * Pass every stored session to a listener, in the order they were added
+	 *
+	 * @param scenarios
+	 *            the scenarios of the sessions, to decode the agreements
+	 * @param listener
+	 * @throws IOException
+	 */
+	public synchronized void replay(List<Scenario> scenarios,
+			TournamentCoordinator.ResultListener listener) throws IOException {
+		for (long position : positions.values()) {
+			DataInputStream in = readRecord(position);
+			SessionSpec spec = SessionSpec.readFrom(in);
+			Domain domain;
+			try {
+				domain = spec.getScenario(scenarios).getDomain();
+			} catch (Exception e) {
+				System.out.println("WARNING :: UNKNOWN SCENARIO :: " + spec);
+				continue;
+			}
+			listener.sessionCompleted(spec,
+					HeadlessSession.SessionResult.readFrom(in, domain));
+		}
+	}
+
+	/**
+	 * @return the payload of a record, after its key
+	 */
+	private DataInputStream readRecord(long position) throws IOException {
+		log.seek(position);
+		byte[] payload = new byte[log.readInt()];
+		log.readInt();
+		log.readFully(payload);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				payload));
+		in.readUTF();
+		return in;
+	}
+
+	/**
+	 * Force all appended records to disk
+	 */
+	public synchronized void sync() throws IOException {
+		log.getFD().sync();
+		index.getFD().sync();
+		unsynced = 0;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			sync();
+		} finally {
+			log.close();
+			index.close();
+		}
+	}
+
+	/**
+	 * Check that a result survives reopening the store, and that the session
+	 * is then skipped like {@link TournamentCoordinator#main(String[])} does
+	 * on a resumed run. The session is run in this JVM, in a new store in a
+	 * temporary directory.
+	 *
+	 * @param scenarios
+	 * @throws Exception
+	 *             when a session can not be run
+	 * @throws IllegalStateException
+	 *             when the check fails
+	 */
+	public static void checkResume(List<Scenario> scenarios) throws Exception {
+		List<SessionSpec> matrix = SessionSpec.getMatrix(scenarios,
+				new int[] { 18 }, 3, 1,
+				Collections.singletonList(Group11.class.getName()));
+		if (matrix.isEmpty())
+			throw new IllegalStateException("No scenarios to check with");
+		File directory = Files.createTempDirectory("group11-results")
+				.toFile();
+
+		ResultStore store = new ResultStore(directory);
+		SessionSpec spec;
+		HeadlessSession.SessionResult result;
+		try {
+			if (!TournamentCoordinator.getPendingSessions(matrix, store).equals(
+					matrix))
+				throw new IllegalStateException("New store is not empty");
+			spec = matrix.get(0);
+			result = spec.run(scenarios);
+			store.add(spec, result, spec.getScenario(scenarios).getDomain());
+		} finally {
+			store.close();
+		}
+
+		store = new ResultStore(directory);
+		try {
+			List<SessionSpec> pending = TournamentCoordinator
+					.getPendingSessions(matrix, store);
+			if (pending.size() != matrix.size() - 1 || pending.contains(spec))
+				throw new IllegalStateException(
+						"Stored session is not skipped on resume");
+			HeadlessSession.SessionResult stored = store.get(spec.getKey(),
+					spec.getScenario(scenarios).getDomain());
+			if (stored == null || stored.rounds != result.rounds
+					|| !Arrays.equals(stored.utilities, result.utilities))
+				throw new IllegalStateException(
+						"Stored result differs from the result of the session");
+		} finally {
+			store.close();
+			new File(directory, "results.log").delete();
+			new File(directory, "results.idx").delete();
+			directory.delete();
+		}
+		System.out.println("Resume check passed: " + spec + " is skipped");
+	}
+
+	/**
+	 * Print every stored result, or check that resuming works.
+	 *
+	 * Usage: ResultStore storeDirectory [templateDirectory]
+	 *
+	 * or: ResultStore -check [templateDirectory]
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("Usage: ResultStore storeDirectory [templateDirectory]");
+			System.out.println("   or: ResultStore -check [templateDirectory]");
+			return;
+		}
+		List<Scenario> scenarios = Scenario.loadAll(new File(
+				args.length > 1 ? args[1] : Scenario.DEFAULT_TEMPLATE_DIRECTORY));
+		if (args[0].equals("-check")) {
+			checkResume(scenarios);
+			return;
+		}
+		ResultStore store = new ResultStore(new File(args[0]));
+		try {
+			store.replay(scenarios, new TournamentCoordinator.ResultListener() {
+				@Override
+				public void sessionCompleted(SessionSpec spec,
+						HeadlessSession.SessionResult r) {
+					System.out.println(String.format(
+							"%s rounds=%d agreement=%b utilities=%s pareto=%.4f nash=%.4f",
+							spec, r.rounds, r.hasAgreement(),
+							Arrays.toString(r.utilities), r.paretoDistance,
+							r.nashDistance));
+				}
+
+				@Override
+				public void sessionFailed(SessionSpec spec) {
+				}
+			});
+		} finally {
+			store.close();
+		}
+	}
+}
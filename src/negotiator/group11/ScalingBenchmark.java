@@ -0,0 +1,125 @@
+package negotiator.group11;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import negotiator.Domain;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Measures how the agent scales with the size of the outcome space.
+ *
+ * For every size from 10^minExponent to 10^maxExponent a domain with
+ * exponent issues of 10 values is generated, and a three party session of our
+ * agent against itself is run on it. The per-round latency, the heap used
+ * after the session and the {@link EngineTier} the agent picked are written
+ * to scaling.csv, together with a gnuplot script that plots the latency and
+ * the heap against the outcome space size.
+ *
+ * Usage: ScalingBenchmark directory [minExponent] [maxExponent] [rounds]
+ */
+public class ScalingBenchmark {
+
+	private static final int VALUES_PER_ISSUE = 10;
+	private static final int PARTIES = 3;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: ScalingBenchmark directory "
+					+ "[minExponent] [maxExponent] [rounds]");
+			return;
+		}
+
+		File directory = new File(args[0]);
+		int minExponent = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int maxExponent = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+		directory.mkdirs();
+		PrintWriter csv = new PrintWriter(new File(directory, "scaling.csv"),
+				"UTF-8");
+		try {
+			csv.println("outcomes,issues,rounds,mean_round_us,max_round_us,heap_mb,tier,status");
+			for (int e = minExponent; e <= maxExponent; e++) {
+				String line = run(directory, e, rounds);
+				System.out.println(line);
+				csv.println(line);
+				csv.flush();
+			}
+		} finally {
+			csv.close();
+		}
+
+		writePlotScript(new File(directory, "scaling.gp"));
+	}
+
+	/**
+	 * Run the benchmark for a single outcome space size
+	 *
+	 * @return a CSV line with the measurements
+	 */
+	private static String run(File directory, int issues, int rounds)
+			throws IOException {
+		long outcomes = (long) Math.pow(VALUES_PER_ISSUE, issues);
+		DomainGenerator generator = new DomainGenerator(issues,
+				VALUES_PER_ISSUE, 1, 0, issues);
+		DomainGenerator.GeneratedDomain files = generator.generate(directory,
+				"scaling" + issues, PARTIES);
+
+		try {
+			Domain domain = new Domain(files.domainFile);
+			List<UtilitySpace> utilitySpaces = new ArrayList<UtilitySpace>();
+			for (File f : files.profileFiles)
+				utilitySpaces.add(new UtilitySpace(domain, f.getPath()));
+
+			HeadlessSession.SessionResult r = HeadlessSession
+					.withSameParties(HeadlessSession.GROUP11, utilitySpaces,
+							rounds, issues).run();
+			long heap = getUsedHeap();
+
+			long total = 0, max = 0;
+			for (int i = 0; i < PARTIES; i++) {
+				total += r.totalLatencies[i];
+				max = Math.max(max, r.maxLatencies[i]);
+			}
+
+			return String.format("%d,%d,%d,%.1f,%.1f,%.1f,%s,%s", outcomes,
+					issues, r.rounds, total / 1000.0 / r.rounds,
+					max / 1000.0, heap / 1048576.0, r.engineTiers[0],
+					r.failedParty < 0 ? "OK" : "FAILED");
+		} catch (OutOfMemoryError e) {
+			return outcomes + "," + issues + ",0,,,,," + "OOM";
+		} catch (Exception e) {
+			e.printStackTrace();
+			return outcomes + "," + issues + ",0,,,,," + "ERROR";
+		}
+	}
+
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		runtime.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static void writePlotScript(File file) throws IOException {
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		try {
+			out.println("set datafile separator ','");
+			out.println("set terminal png size 800,600");
+			out.println("set logscale x");
+			out.println("set xlabel 'Outcome space size'");
+			out.println("set output 'scaling_latency.png'");
+			out.println("set ylabel 'Latency per round (us)'");
+			out.println("plot 'scaling.csv' every ::1 using 1:4 with linespoints title 'mean', \\");
+			out.println("     'scaling.csv' every ::1 using 1:5 with linespoints title 'max'");
+			out.println("set output 'scaling_memory.png'");
+			out.println("set ylabel 'Used heap (MB)'");
+			out.println("plot 'scaling.csv' every ::1 using 1:6 with linespoints title 'heap'");
+		} finally {
+			out.close();
+		}
+	}
+}
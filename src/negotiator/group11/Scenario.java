@@ -0,0 +1,137 @@
+package negotiator.group11;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import negotiator.Domain;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * A negotiation domain together with its preference profiles, as bundled in
+ * etc/templates/ANAC2015.
+ */
+public class Scenario {
+
+	public static final String DEFAULT_TEMPLATE_DIRECTORY = "etc/templates/ANAC2015";
+
+	private final String name;
+	private final File domainFile;
+	private final List<File> profileFiles;
+	private Domain domain;
+	/** Pareto frontier per combination of profiles */
+	private final Map<String, ParetoFrontier> frontiers = new HashMap<String, ParetoFrontier>();
+
+	public Scenario(String name, File domainFile, List<File> profileFiles) {
+		this.name = name;
+		this.domainFile = domainFile;
+		this.profileFiles = profileFiles;
+	}
+
+	/**
+	 * Load all scenarios from a template directory, where every subdirectory
+	 * holds one domain file and its profiles. Profiles are recognised by
+	 * "util" or "profile" in their file name.
+	 *
+	 * @param directory
+	 * @return the scenarios, sorted on name
+	 */
+	public static List<Scenario> loadAll(File directory) {
+		List<Scenario> result = new ArrayList<Scenario>();
+		File[] subdirectories = directory.listFiles();
+		if (subdirectories == null)
+			return result;
+		Arrays.sort(subdirectories);
+
+		for (File d : subdirectories) {
+			File[] files = d.listFiles();
+			if (files == null)
+				continue;
+			Arrays.sort(files);
+
+			File domainFile = null;
+			List<File> profiles = new ArrayList<File>();
+			for (File f : files) {
+				String fileName = f.getName().toLowerCase();
+				if (!fileName.endsWith(".xml"))
+					continue;
+				if (fileName.contains("util") || fileName.contains("profile"))
+					profiles.add(f);
+				else
+					domainFile = f;
+			}
+
+			if (domainFile != null && !profiles.isEmpty())
+				result.add(new Scenario(d.getName(), domainFile, profiles));
+		}
+		return result;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public File getDomainFile() {
+		return domainFile;
+	}
+
+	public List<File> getProfileFiles() {
+		return profileFiles;
+	}
+
+	/**
+	 * @return the domain, which is loaded once and then shared
+	 */
+	public synchronized Domain getDomain() throws Exception {
+		if (domain == null)
+			domain = new Domain(domainFile);
+		return domain;
+	}
+
+	/**
+	 * Load fresh utility spaces for a session. Each call returns new
+	 * instances, as parties may modify their utility space.
+	 *
+	 * @param profiles
+	 *            indices of the profiles, one per party
+	 * @return a utility space per party
+	 */
+	public List<UtilitySpace> loadUtilitySpaces(int... profiles)
+			throws Exception {
+		List<UtilitySpace> result = new ArrayList<UtilitySpace>();
+		for (int p : profiles)
+			result.add(new UtilitySpace(getDomain(), profileFiles.get(
+					p % profileFiles.size()).getPath()));
+		return result;
+	}
+
+	/**
+	 * Get the Pareto frontier of a combination of profiles, which is computed
+	 * once and then shared
+	 *
+	 * @param profiles
+	 *            indices of the profiles, one per party
+	 * @return the frontier
+	 */
+	public synchronized ParetoFrontier getParetoFrontier(int... profiles)
+			throws Exception {
+		int[] indices = new int[profiles.length];
+		for (int p = 0; p < profiles.length; p++)
+			indices[p] = profiles[p] % profileFiles.size();
+		String key = Arrays.toString(indices);
+
+		ParetoFrontier frontier = frontiers.get(key);
+		if (frontier == null) {
+			frontier = new ParetoFrontier(loadUtilitySpaces(indices));
+			frontiers.put(key, frontier);
+		}
+		return frontier;
+	}
+
+	public String toString() {
+		return name;
+	}
+}
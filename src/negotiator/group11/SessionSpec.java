@@ -0,0 +1,266 @@
+package negotiator.group11;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import negotiator.DeadlineType;
+import negotiator.Timeline;
+import negotiator.parties.NegotiationParty;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Everything needed to run a {@link HeadlessSession} again: the scenario, the
+ * agent, profile and config of every party, the round deadline and the seed.
+ * Specs can be written to a stream, so a session can be run in another
+ * process.
+ */
+public class SessionSpec {
+
+	private static final String group11 = Group11.class.getName();
+
+	/** Position of the session in its tournament */
+	public final int id;
+	/** Name of the {@link Scenario} */
+	public final String scenario;
+	/** Profile index per party, in turn order */
+	public final int[] profiles;
+	/** Class name of the agent per party, in turn order */
+	public final String[] agents;
+	public final int roundDeadline;
+	public final long seed;
+	/**
+	 * Config per party, or null for a party with the defaults. Only our own
+	 * agent has a config.
+	 */
+	public final Group11Config[] configs;
+
+	public SessionSpec(int id, String scenario, int[] profiles,
+			String[] agents, int roundDeadline, long seed,
+			Group11Config[] configs) {
+		if (profiles.length != agents.length
+				|| profiles.length != configs.length)
+			throw new IllegalArgumentException(
+					"Every party needs a profile, an agent and a config");
+		for (int p = 0; p < agents.length; p++)
+			if (configs[p] != null && !agents[p].equals(group11))
+				throw new IllegalArgumentException("Agent " + agents[p]
+						+ " has no config");
+		this.id = id;
+		this.scenario = scenario;
+		this.profiles = profiles;
+		this.agents = agents;
+		this.roundDeadline = roundDeadline;
+		this.seed = seed;
+		this.configs = configs;
+	}
+
+	/**
+	 * Create a session of our own agent against itself, with default configs
+	 * for the parties without one
+	 */
+	public SessionSpec(int id, String scenario, int[] profiles,
+			int roundDeadline, long seed, Group11Config[] configs) {
+		this(id, scenario, profiles, getSelfPlay(profiles.length),
+				roundDeadline, seed, configs);
+	}
+
+	private static String[] getSelfPlay(int parties) {
+		String[] agents = new String[parties];
+		Arrays.fill(agents, group11);
+		return agents;
+	}
+
+	/**
+	 * Create the full matrix of sessions of our agent against every
+	 * opponent: every scenario with every round deadline, with the profiles
+	 * rotated over the parties. Our agent takes the first turn and the other
+	 * parties are all the opponent.
+	 *
+	 * @param scenarios
+	 * @param roundDeadlines
+	 * @param parties
+	 *            the amount of parties per session
+	 * @param rotations
+	 *            the amount of different profile rotations per scenario and
+	 *            deadline
+	 * @param opponents
+	 *            class names of the opponent agents, which have the
+	 *            constructor of a genius party
+	 * @return the sessions, numbered from 0
+	 */
+	public static List<SessionSpec> getMatrix(List<Scenario> scenarios,
+			int[] roundDeadlines, int parties, int rotations,
+			List<String> opponents) {
+		List<SessionSpec> result = new ArrayList<SessionSpec>();
+		for (String opponent : opponents)
+			for (Scenario s : scenarios)
+				for (int deadline : roundDeadlines)
+					for (int r = 0; r < rotations; r++) {
+						int[] profiles = new int[parties];
+						String[] agents = new String[parties];
+						for (int p = 0; p < parties; p++) {
+							profiles[p] = r + p;
+							agents[p] = p == 0 ? group11 : opponent;
+						}
+						result.add(new SessionSpec(result.size(),
+								s.getName(), profiles, agents, deadline,
+								result.size(), new Group11Config[parties]));
+					}
+		return result;
+	}
+
+	/**
+	 * Run the session
+	 *
+	 * @param scenarios
+	 *            the scenarios, of which one has the name of this spec
+	 * @return the outcome of the session
+	 * @throws Exception
+	 *             when the scenario is unknown or a profile can not be read
+	 */
+	public HeadlessSession.SessionResult run(List<Scenario> scenarios)
+			throws Exception {
+		List<UtilitySpace> utilitySpaces = getScenario(scenarios)
+				.loadUtilitySpaces(profiles);
+
+		List<HeadlessSession.PartyFactory> factories = new ArrayList<HeadlessSession.PartyFactory>();
+		for (int p = 0; p < agents.length; p++) {
+			final Group11Config config = configs[p];
+			if (!agents[p].equals(group11)) {
+				factories.add(getFactory(agents[p]));
+				continue;
+			}
+			if (config == null) {
+				factories.add(HeadlessSession.GROUP11);
+				continue;
+			}
+			factories.add(new HeadlessSession.PartyFactory() {
+				@Override
+				public NegotiationParty create(UtilitySpace utilitySpace,
+						Map<DeadlineType, Object> deadlines, Timeline timeline,
+						long randomSeed) {
+					return new Group11(utilitySpace, deadlines, timeline,
+							randomSeed, config);
+				}
+			});
+		}
+
+		HeadlessSession.SessionResult result = new HeadlessSession(factories,
+				utilitySpaces, roundDeadline, seed).run();
+		if (BidEncoder.supports(utilitySpaces.get(0).getDomain()))
+			result.measure(getScenario(scenarios).getParetoFrontier(profiles));
+		return result;
+	}
+
+	/**
+	 * @param agent
+	 *            class name of an agent with the constructor of a genius party
+	 * @return a factory that creates the agent
+	 * @throws ReflectiveOperationException
+	 *             when the agent can not be loaded
+	 */
+	private static HeadlessSession.PartyFactory getFactory(final String agent)
+			throws ReflectiveOperationException {
+		final Constructor<? extends NegotiationParty> constructor = Class
+				.forName(agent).asSubclass(NegotiationParty.class)
+				.getConstructor(UtilitySpace.class, Map.class, Timeline.class,
+						long.class);
+		return new HeadlessSession.PartyFactory() {
+			@Override
+			public NegotiationParty create(UtilitySpace utilitySpace,
+					Map<DeadlineType, Object> deadlines, Timeline timeline,
+					long randomSeed) {
+				try {
+					return constructor.newInstance(utilitySpace, deadlines,
+							timeline, randomSeed);
+				} catch (ReflectiveOperationException e) {
+					throw new IllegalStateException("Can not create " + agent,
+							e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return the scenario of this session
+	 * @throws IllegalArgumentException
+	 *             if there is no scenario with its name
+	 */
+	public Scenario getScenario(List<Scenario> scenarios) {
+		for (Scenario s : scenarios)
+			if (s.getName().equals(scenario))
+				return s;
+		throw new IllegalArgumentException("Unknown scenario " + scenario);
+	}
+
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(id);
+		out.writeUTF(scenario);
+		out.writeInt(roundDeadline);
+		out.writeLong(seed);
+		out.writeInt(profiles.length);
+		for (int p = 0; p < profiles.length; p++) {
+			out.writeInt(profiles[p]);
+			out.writeUTF(agents[p]);
+			if (configs[p] == null) {
+				out.writeInt(-1);
+				continue;
+			}
+			Map<String, Double> parameters = configs[p].toMap();
+			out.writeInt(parameters.size());
+			for (Entry<String, Double> e : parameters.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeDouble(e.getValue());
+			}
+		}
+	}
+
+	public static SessionSpec readFrom(DataInputStream in) throws IOException {
+		int id = in.readInt();
+		String scenario = in.readUTF();
+		int roundDeadline = in.readInt();
+		long seed = in.readLong();
+		int parties = in.readInt();
+		int[] profiles = new int[parties];
+		String[] agents = new String[parties];
+		Group11Config[] configs = new Group11Config[parties];
+		for (int p = 0; p < parties; p++) {
+			profiles[p] = in.readInt();
+			agents[p] = in.readUTF();
+			int parameters = in.readInt();
+			if (parameters < 0)
+				continue;
+			configs[p] = new Group11Config();
+			for (int i = 0; i < parameters; i++)
+				configs[p].set(in.readUTF(), in.readDouble());
+		}
+		return new SessionSpec(id, scenario, profiles, agents, roundDeadline,
+				seed, configs);
+	}
+
+	/**
+	 * @return a key that identifies the session by everything it depends on,
+	 *         so results of a changed schedule are not mistaken for its own
+	 */
+	public String getKey() {
+		StringBuilder key = new StringBuilder();
+		key.append(scenario).append(';').append(roundDeadline).append(';')
+				.append(seed).append(';').append(Arrays.toString(profiles))
+				.append(';').append(Arrays.toString(agents));
+		for (Group11Config c : configs)
+			key.append(';').append(c == null ? "default" : c.toMap());
+		return key.toString();
+	}
+
+	public String toString() {
+		return "#" + id + " " + scenario + " deadline=" + roundDeadline
+				+ " seed=" + seed;
+	}
+}
@@ -0,0 +1,632 @@
+package negotiator.group11;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+import negotiator.Bid;
+import negotiator.Domain;
+import negotiator.issue.ISSUETYPE;
+import negotiator.issue.Issue;
+import negotiator.issue.IssueDiscrete;
+import negotiator.issue.IssueInteger;
+import negotiator.issue.IssueReal;
+import negotiator.issue.Value;
+import negotiator.issue.ValueDiscrete;
+import negotiator.issue.ValueInteger;
+import negotiator.issue.ValueReal;
+
+/**
+ * An opponent model with a fixed amount of memory per issue, for domains
+ * where {@link OpponentUtilityModel} would need a counter for thousands of
+ * values, or that have integer and real issues.
+ *
+ * Discrete issues with many values are counted in a Count-Min sketch, which
+ * never underestimates a count. The most offered value of an issue is tracked
+ * while counting, so the evaluation of a value is its estimated count divided
+ * by the count of that heavy hitter, as in {@link OpponentUtilityModel}.
+ *
+ * Integer and real issues are counted in bins over the range of the issue.
+ * Integer issues with few values get a bin per value. Other issues start with
+ * bins of equal width, which adapt to the offers: a bin that holds more than
+ * its share of the counts is split in two halves that each get half its
+ * count, and the two neighbouring bins with the smallest counts are merged,
+ * so the resolution goes to the values the opponent offers. The count of a
+ * value is the density of its bin, its count per width of an equal bin, and
+ * real values are interpolated between the bins around them.
+ *
+ * Issue weights are determined from the variance of the relative counts, as
+ * in {@link OpponentUtilityModel}, using a running sum of squared counts.
+ */
+public class SketchOpponentModel extends OpponentUtilityModel {
+
+	/** Discrete issues with more values than this are counted in a sketch */
+	private static final int maxExactValues = 1024;
+	/** Amount of hash rows of a sketch */
+	private static final int sketchDepth = 4;
+	/** Amount of counters per hash row, a power of two */
+	private static final int sketchWidth = 512;
+	/** Amount of bins for integer and real issues */
+	private static final int maxBins = 64;
+	/** Share of the counts, relative to an equal share, that splits a bin */
+	private static final double splitShare = 2;
+	/** Observation weight at which all counters are scaled back */
+	private static final double maxObservationWeight = 1e50;
+
+	private final Issue[] issues;
+	/** Issues without a value in the sketch, counted exactly per value */
+	private final boolean[] exact;
+	/** Index of every value of the issues that are counted exactly */
+	private final HashMap<Value, Integer>[] valueIndices;
+	/** Counters per issue: depth * width for a sketch, one per bin otherwise */
+	private final double[][] counters;
+	/** Bin edges per issue with adaptive bins, otherwise null */
+	private final double[][] edges;
+	/** The amount of values the variance of an issue is taken over */
+	private final int[] cardinalities;
+	/** The estimated count of the most offered value of every issue */
+	private final double[] maxCounts;
+	/** Sum of the squared estimated counts of every issue */
+	private final double[] squaredCounts;
+	private final double[] weights;
+
+	private final double decay;
+	private double observationWeight = 1;
+	/** Weighted amount of counted bids, in the scale of the counters */
+	private double total;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public SketchOpponentModel(Domain d, double decay) {
+		if (decay <= 0 || decay > 1)
+			throw new IllegalArgumentException("Decay should be in (0, 1]");
+		this.decay = decay;
+
+		List<Issue> domainIssues = d.getIssues();
+		int n = domainIssues.size();
+		issues = new Issue[n];
+		exact = new boolean[n];
+		valueIndices = new HashMap[n];
+		counters = new double[n][];
+		edges = new double[n][];
+		cardinalities = new int[n];
+		maxCounts = new double[n];
+		squaredCounts = new double[n];
+		weights = new double[n];
+
+		for (int i = 0; i < n; i++) {
+			Issue issue = domainIssues.get(i);
+			issues[i] = issue;
+			weights[i] = 1.0 / n;
+
+			switch (issue.getType()) {
+			case DISCRETE:
+				IssueDiscrete id = (IssueDiscrete) issue;
+				int values = id.getNumberOfValues();
+				exact[i] = values <= maxExactValues;
+				cardinalities[i] = values;
+				counters[i] = new double[exact[i] ? values : sketchDepth
+						* sketchWidth];
+				if (exact[i]) {
+					valueIndices[i] = new HashMap<Value, Integer>();
+					for (int j = 0; j < values; j++)
+						valueIndices[i].put(id.getValue(j), j);
+				}
+				break;
+			case INTEGER:
+				IssueInteger ii = (IssueInteger) issue;
+				long range = (long) ii.getUpperBound() - ii.getLowerBound() + 1;
+				cardinalities[i] = (int) Math.min(maxBins, range);
+				counters[i] = new double[cardinalities[i]];
+				if (range > maxBins)
+					edges[i] = getEqualEdges(ii.getLowerBound(),
+							ii.getUpperBound() + 1.0);
+				break;
+			case REAL:
+				IssueReal ir = (IssueReal) issue;
+				cardinalities[i] = maxBins;
+				counters[i] = new double[maxBins];
+				edges[i] = getEqualEdges(ir.getLowerBound(),
+						ir.getUpperBound());
+				break;
+			default:
+				throw new IllegalArgumentException("Issues of type "
+						+ issue.getType() + " are not supported");
+			}
+		}
+	}
+
+	private static double[] getEqualEdges(double lower, double upper) {
+		double[] e = new double[maxBins + 1];
+		for (int j = 0; j < maxBins; j++)
+			e[j] = lower + (upper - lower) * j / maxBins;
+		e[maxBins] = upper;
+		return e;
+	}
+
+	/**
+	 * @param d
+	 * @return true iff the domain has issues that {@link OpponentUtilityModel}
+	 *         does not support, or discrete issues with very many values
+	 */
+	public static boolean isNeededFor(Domain d) {
+		for (Issue i : d.getIssues()) {
+			switch (i.getType()) {
+			case DISCRETE:
+				if (((IssueDiscrete) i).getNumberOfValues() > maxExactValues)
+					return true;
+				break;
+			default:
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isValid(Bid b) {
+		if (b == null)
+			return false;
+		HashMap<Integer, Value> values = b.getValues();
+		for (int i = 0; i < issues.length; i++) {
+			Value v = values.get(issues[i].getNumber());
+			if (v == null || !hasType(i, v) || !issues[i].checkInRange(v))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean hasType(int issue, Value v) {
+		switch (issues[issue].getType()) {
+		case DISCRETE:
+			return v instanceof ValueDiscrete;
+		case INTEGER:
+			return v instanceof ValueInteger;
+		default:
+			return v instanceof ValueReal;
+		}
+	}
+
+	@Override
+	protected void updateCountersFromBid(Bid b) {
+		HashMap<Integer, Value> values = b.getValues();
+		for (int i = 0; i < issues.length; i++)
+			count(i, values.get(issues[i].getNumber()));
+		total += observationWeight;
+
+		if (decay < 1)
+			increaseObservationWeight();
+		countersChanged();
+	}
+
+	/**
+	 * Add the observation weight to the counters of a valid value
+	 */
+	private void count(int issue, Value v) {
+		double[] c = counters[issue];
+		double before;
+		double after;
+
+		if (exact[issue] || !(v instanceof ValueDiscrete)) {
+			int index = getIndex(issue, v);
+			before = c[index];
+			after = before + observationWeight;
+			c[index] = after;
+			if (edges[issue] != null) {
+				double scale = getDensityScale(issue, index);
+				squaredCounts[issue] += (after * after - before * before)
+						* scale;
+				maxCounts[issue] = Math.max(maxCounts[issue], after * scale);
+				adaptBins(issue, index);
+				return;
+			}
+		} else {
+			// Count-Min: add to one counter per row, the estimate is the
+			// smallest of them
+			int hash = ((ValueDiscrete) v).getValue().hashCode();
+			before = Double.MAX_VALUE;
+			after = Double.MAX_VALUE;
+			for (int row = 0; row < sketchDepth; row++) {
+				int index = row * sketchWidth + getColumn(hash, row);
+				before = Math.min(before, c[index]);
+				c[index] += observationWeight;
+				after = Math.min(after, c[index]);
+			}
+		}
+
+		squaredCounts[issue] += after * after - before * before;
+		maxCounts[issue] = Math.max(maxCounts[issue], after);
+	}
+
+	/**
+	 * @return the factor that turns the count of an adaptive bin into its
+	 *         count per width of an equal bin
+	 */
+	private double getDensityScale(int issue, int bin) {
+		double[] e = edges[issue];
+		return getWidth(issue, e[0], e[e.length - 1]) / (e.length - 1)
+				/ getWidth(issue, e[bin], e[bin + 1]);
+	}
+
+	/**
+	 * @return the width of a range, which for integer issues is the amount of
+	 *         integers v with lower <= v < upper
+	 */
+	private double getWidth(int issue, double lower, double upper) {
+		if (issues[issue].getType() == ISSUETYPE.INTEGER)
+			return Math.ceil(upper) - Math.ceil(lower);
+		return upper - lower;
+	}
+
+	/**
+	 * Split a bin that holds more than its share of the counts, when the two
+	 * neighbouring bins with the smallest counts together hold less than half
+	 * of it. Those are merged, so the amount of bins stays the same.
+	 */
+	private void adaptBins(int issue, int bin) {
+		double[] c = counters[issue];
+		double[] e = edges[issue];
+		if (c[bin] * c.length <= splitShare * (total + observationWeight))
+			return;
+		double split = getSplit(issue, e[bin], e[bin + 1]);
+		if (Double.isNaN(split))
+			return;
+
+		int merge = -1;
+		for (int j = 0; j + 1 < c.length; j++)
+			if (j != bin && j + 1 != bin
+					&& (merge < 0 || c[j] + c[j + 1] < c[merge] + c[merge + 1]))
+				merge = j;
+		if (merge < 0 || c[merge] + c[merge + 1] >= c[bin] / 2)
+			return;
+
+		double[] newCounts = new double[c.length];
+		double[] newEdges = new double[e.length];
+		int k = 0;
+		for (int j = 0; j < c.length; j++) {
+			newEdges[k] = e[j];
+			if (j == merge) {
+				newCounts[k++] = c[j] + c[j + 1];
+				j++;
+			} else if (j == bin) {
+				newCounts[k++] = c[j] / 2;
+				newEdges[k] = split;
+				newCounts[k++] = c[j] / 2;
+			} else {
+				newCounts[k++] = c[j];
+			}
+		}
+		newEdges[k] = e[e.length - 1];
+		System.arraycopy(newCounts, 0, c, 0, c.length);
+		System.arraycopy(newEdges, 0, e, 0, e.length);
+		recomputeStatistics(issue);
+	}
+
+	/**
+	 * @return the value at which a bin is split, or NaN if it is too narrow
+	 */
+	private double getSplit(int issue, double lower, double upper) {
+		if (issues[issue].getType() == ISSUETYPE.INTEGER) {
+			double values = getWidth(issue, lower, upper);
+			return values < 2 ? Double.NaN : Math.ceil(lower)
+					+ Math.floor(values / 2);
+		}
+		double[] e = edges[issue];
+		if (upper - lower < (e[e.length - 1] - e[0]) * 1e-9)
+			return Double.NaN;
+		return (lower + upper) / 2;
+	}
+
+	/**
+	 * @return the estimated count of a value, or NaN if it is not valid
+	 */
+	private double getCount(int issue, Value v) {
+		double[] c = counters[issue];
+		if (exact[issue] || !(v instanceof ValueDiscrete)) {
+			int index = getIndex(issue, v);
+			if (index < 0)
+				return Double.NaN;
+			return edges[issue] == null ? c[index] : c[index]
+					* getDensityScale(issue, index);
+		}
+
+		int hash = ((ValueDiscrete) v).getValue().hashCode();
+		double count = Double.MAX_VALUE;
+		for (int row = 0; row < sketchDepth; row++)
+			count = Math.min(count, c[row * sketchWidth + getColumn(hash, row)]);
+		return count;
+	}
+
+	/**
+	 * Get the counter of a value that is counted exactly or binned
+	 * 
+	 * @return the index of the counter, or -1 if the value is not valid
+	 */
+	private int getIndex(int issue, Value v) {
+		if (!hasType(issue, v))
+			return -1;
+
+		Issue i = issues[issue];
+		switch (i.getType()) {
+		case DISCRETE:
+			Integer index = valueIndices[issue].get(v);
+			return index == null ? -1 : index;
+		case INTEGER:
+			IssueInteger ii = (IssueInteger) i;
+			return getBin(issue, ((ValueInteger) v).getValue(),
+					ii.getLowerBound(), ii.getUpperBound() + 1);
+		default:
+			IssueReal ir = (IssueReal) i;
+			return getBin(issue, ((ValueReal) v).getValue(),
+					ir.getLowerBound(), ir.getUpperBound());
+		}
+	}
+
+	private int getBin(int issue, double value, double lower, double upper) {
+		if (edges[issue] != null)
+			return findBin(edges[issue], value);
+		int bins = counters[issue].length;
+		int bin = (int) ((value - lower) / (upper - lower) * bins);
+		return Math.max(0, Math.min(bins - 1, bin));
+	}
+
+	/**
+	 * @return the bin of which the edges contain the value, or the first or
+	 *         last bin for values outside the edges
+	 */
+	private static int findBin(double[] e, double value) {
+		int low = 0;
+		int high = e.length - 2;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (e[middle] <= value)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Get the column of a value in a row of the sketch, using a different
+	 * hash function for every row
+	 */
+	private static int getColumn(int hash, int row) {
+		int h = hash * (0x9E3779B9 + 2 * row) + row;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return h & (sketchWidth - 1);
+	}
+
+	/**
+	 * Let all counts decay by making the next observations weigh more. When
+	 * the weight gets too large, all counters are scaled back so the weight
+	 * is 1 again.
+	 */
+	private void increaseObservationWeight() {
+		observationWeight /= decay;
+		if (observationWeight < maxObservationWeight)
+			return;
+
+		for (int i = 0; i < issues.length; i++) {
+			double[] c = counters[i];
+			for (int j = 0; j < c.length; j++)
+				c[j] /= observationWeight;
+			maxCounts[i] /= observationWeight;
+			squaredCounts[i] /= observationWeight * observationWeight;
+		}
+		total /= observationWeight;
+		observationWeight = 1;
+	}
+
+	/**
+	 * Determine the issue weights from the variance of the relative counts.
+	 * The relative counts of an issue sum up to one, so their mean is one
+	 * over the amount of values.
+	 */
+	@Override
+	protected void updateWeights() {
+		double totalVariance = 0;
+		double[] variances = new double[issues.length];
+		for (int i = 0; i < issues.length; i++) {
+			double mean = 1.0 / cardinalities[i];
+			variances[i] = Math.max(0, squaredCounts[i] / (total * total)
+					/ cardinalities[i] - mean * mean);
+			totalVariance += variances[i];
+		}
+
+		double extraFreeVariancePointsPerIssue = (1 - totalVariance)
+				/ issues.length;
+		double change = 0;
+		for (int i = 0; i < issues.length; i++) {
+			double weight = variances[i] + extraFreeVariancePointsPerIssue;
+			change += Math.abs(weight - weights[i]);
+			weights[i] = weight;
+		}
+		addWeightChange(change);
+	}
+
+	@Override
+	public double getUtility(Bid b) {
+		HashMap<Integer, Value> values = b.getValues();
+		double utility = 0;
+		for (int i = 0; i < issues.length; i++)
+			utility += weights[i]
+					* getIssueEvaluation(i, values.get(issues[i].getNumber()));
+		return utility;
+	}
+
+	/**
+	 * The sketch has no evaluation per value index
+	 * 
+	 * @return null
+	 */
+	@Override
+	public double[][] getWeightedEvaluations(BidEncoder encoder) {
+		return null;
+	}
+
+	/**
+	 * Get the valuation of a value of an issue: its count relative to the
+	 * most offered value, or NaN if the value is not valid
+	 */
+	private double getIssueEvaluation(int issue, Value v) {
+		if (maxCounts[issue] == 0 || v == null)
+			return Double.NaN;
+		if (v instanceof ValueReal && hasType(issue, v))
+			return getInterpolatedCount(issue, ((ValueReal) v).getValue())
+					/ maxCounts[issue];
+		return getCount(issue, v) / maxCounts[issue];
+	}
+
+	/**
+	 * Interpolate linearly between the densities of the bins around a real
+	 * value, at the centers of the bins
+	 */
+	private double getInterpolatedCount(int issue, double value) {
+		double[] c = counters[issue];
+		double[] e = edges[issue];
+		int bin = findBin(e, value);
+		double center = (e[bin] + e[bin + 1]) / 2;
+		int other = value < center ? bin - 1 : bin + 1;
+		double density = c[bin] * getDensityScale(issue, bin);
+		if (other < 0 || other >= c.length)
+			return density;
+		double otherCenter = (e[other] + e[other + 1]) / 2;
+		double fraction = (value - center) / (otherCenter - center);
+		return density * (1 - fraction) + c[other]
+				* getDensityScale(issue, other) * fraction;
+	}
+
+	/**
+	 * Write the counters, which only fit a model of the same domain
+	 */
+	@Override
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeDouble(total / observationWeight);
+		out.writeInt(issues.length);
+		for (int i = 0; i < issues.length; i++) {
+			out.writeInt(issues[i].getNumber());
+			out.writeDouble(weights[i]);
+			out.writeInt(counters[i].length);
+			for (double c : counters[i])
+				out.writeDouble(c / observationWeight);
+			out.writeBoolean(edges[i] != null);
+			if (edges[i] != null)
+				for (double e : edges[i])
+					out.writeDouble(e);
+		}
+	}
+
+	/**
+	 * Warm start the model with counters written by
+	 * {@link #writeTo(DataOutputStream)}. Issues with a different layout are
+	 * skipped. Counts of adaptive bins are spread over the bins of this model
+	 * by their overlap; a model without counts takes the stored edges.
+	 */
+	@Override
+	public void readFrom(DataInputStream in, int maxObservations)
+			throws IOException {
+		double observations = in.readDouble();
+		double scale = (observations > maxObservations ? maxObservations
+				/ observations : 1)
+				* observationWeight;
+
+		int numberOfIssues = in.readInt();
+		for (int n = 0; n < numberOfIssues; n++) {
+			int number = in.readInt();
+			double weight = in.readDouble();
+			int length = in.readInt();
+
+			int issue = -1;
+			for (int i = 0; i < issues.length; i++)
+				if (issues[i].getNumber() == number
+						&& counters[i].length == length)
+					issue = i;
+
+			double[] counts = new double[length];
+			for (int j = 0; j < length; j++)
+				counts[j] = in.readDouble() * scale;
+			double[] from = null;
+			if (in.readBoolean()) {
+				from = new double[length + 1];
+				for (int j = 0; j <= length; j++)
+					from[j] = in.readDouble();
+			}
+
+			if (issue >= 0 && (from == null) != (edges[issue] == null))
+				issue = -1;
+			if (issue >= 0 && from != null)
+				addBinned(issue, from, counts);
+			else if (issue >= 0)
+				for (int j = 0; j < length; j++)
+					counters[issue][j] += counts[j];
+			if (issue >= 0) {
+				weights[issue] = weight;
+				recomputeStatistics(issue);
+			}
+		}
+
+		total += observations * scale;
+		addPriorObservations((int) Math.round(scale / observationWeight
+				* observations));
+	}
+
+	/**
+	 * Add counts of bins with other edges to the adaptive bins of an issue,
+	 * spreading the count of every bin by its overlap with the bins of this
+	 * model
+	 */
+	private void addBinned(int issue, double[] from, double[] counts) {
+		double[] c = counters[issue];
+		double[] e = edges[issue];
+		boolean empty = true;
+		for (double count : c)
+			empty &= count == 0;
+		if (empty)
+			System.arraycopy(from, 0, e, 0, e.length);
+
+		for (int j = 0; j < counts.length; j++) {
+			double width = from[j + 1] - from[j];
+			if (width <= 0)
+				continue;
+			for (int k = findBin(e, from[j]); k < c.length
+					&& e[k] < from[j + 1]; k++) {
+				double overlap = Math.min(from[j + 1], e[k + 1])
+						- Math.max(from[j], e[k]);
+				if (overlap > 0)
+					c[k] += counts[j] * overlap / width;
+			}
+		}
+	}
+
+	/**
+	 * Recompute the heavy hitter and the squared counts of an issue from its
+	 * counters. For a sketch, every row holds all counts, so the first row is
+	 * used as the estimate.
+	 */
+	private void recomputeStatistics(int issue) {
+		double[] c = counters[issue];
+		boolean sketch = issues[issue].getType() == ISSUETYPE.DISCRETE
+				&& !exact[issue];
+		int length = sketch ? sketchWidth : c.length;
+		maxCounts[issue] = 0;
+		squaredCounts[issue] = 0;
+		for (int j = 0; j < length; j++) {
+			double scale = edges[issue] == null ? 1 : getDensityScale(issue, j);
+			maxCounts[issue] = Math.max(maxCounts[issue], c[j] * scale);
+			squaredCounts[issue] += c[j] * c[j] * scale;
+		}
+	}
+
+	public String toString() {
+		String result = "";
+		for (int i = 0; i < issues.length; i++)
+			result += issues[i] + " ("
+					+ ((double) Math.round(weights[i] * 1000) / 1000)
+					+ ") : max " + maxCounts[i] + "\n";
+		return result;
+	}
+}
@@ -1,12 +1,14 @@
 package negotiator.group11;
 
-import java.util.Arrays;
-
 /**
  * Class to use for basic statistics.
  * 
  * Source:
  * http://stackoverflow.com/questions/7988486/how-do-you-calculate-the-variance-median-and-standard-deviation-in-c-or-java
+ * 
+ * The variance is computed in a single pass and the median with quickselect;
+ * see {@link StreamingStatistics} and {@link QuantileSketch} for statistics
+ * that do not need the data as an array at all.
  */
 public class Statistics {
 
@@ -28,11 +30,10 @@ public class Statistics {
 	 * @return
 	 */
 	public static double getVariance(double[] data) {
-		double mean = getMean(data);
-		double temp = 0;
+		StreamingStatistics stats = new StreamingStatistics();
 		for (double a : data)
-			temp += (mean - a) * (mean - a);
-		return temp / data.length;
+			stats.add(a);
+		return stats.getVariance();
 	}
 
 	/**
@@ -52,12 +53,57 @@ public class Statistics {
 	public static double median(double[] data) {
 		double[] b = new double[data.length];
 		System.arraycopy(data, 0, b, 0, b.length);
-		Arrays.sort(b);
 
+		double upper = select(b, b.length / 2);
 		if (data.length % 2 == 0) {
-			return (b[(b.length / 2) - 1] + b[b.length / 2]) / 2.0;
+			// After selecting, the lower half is left of the upper median
+			double lower = b[0];
+			for (int i = 1; i < b.length / 2; i++)
+				lower = Math.max(lower, b[i]);
+			return (lower + upper) / 2.0;
 		} else {
-			return b[b.length / 2];
+			return upper;
+		}
+	}
+
+	/**
+	 * Find the k-th smallest value using quickselect. Reorders the data so
+	 * that all smaller values are before position k.
+	 * 
+	 * @param data
+	 * @param k
+	 * @return the k-th smallest value
+	 */
+	static double select(double[] data, int k) {
+		int left = 0, right = data.length - 1;
+		while (left < right) {
+			// Median of three as pivot, to avoid the worst case on sorted data
+			int mid = (left + right) >>> 1;
+			double pivot = Math.max(Math.min(data[left], data[mid]),
+					Math.min(Math.max(data[left], data[mid]), data[right]));
+
+			int i = left, j = right;
+			while (i <= j) {
+				while (data[i] < pivot)
+					i++;
+				while (data[j] > pivot)
+					j--;
+				if (i <= j) {
+					double t = data[i];
+					data[i] = data[j];
+					data[j] = t;
+					i++;
+					j--;
+				}
+			}
+
+			if (k <= j)
+				right = j;
+			else if (k >= i)
+				left = i;
+			else
+				return data[k];
 		}
+		return data[k];
 	}
 }
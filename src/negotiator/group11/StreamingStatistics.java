@@ -0,0 +1,115 @@
+package negotiator.group11;
+
+/**
+ * Single pass statistics of a stream of values.
+ *
+ * Keeps the count, mean, sum of squared differences from the mean (using
+ * Welford's algorithm), minimum and maximum. Adding a value and merging two
+ * accumulators are both O(1), so statistics can be gathered per thread or
+ * per group and combined afterwards.
+ */
+public class StreamingStatistics {
+
+	private long count;
+	private double mean;
+	private double m2;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Add a value
+	 *
+	 * @param value
+	 */
+	public void add(double value) {
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Add all values of another accumulator to this one
+	 *
+	 * @param other
+	 */
+	public void merge(StreamingStatistics other) {
+		if (other.count == 0)
+			return;
+		if (count == 0) {
+			count = other.count;
+			mean = other.mean;
+			m2 = other.m2;
+			min = other.min;
+			max = other.max;
+			return;
+		}
+
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		m2 += other.m2 + delta * delta * count * other.count / total;
+		count = total;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean, or NaN if there are no values
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/**
+	 * @return the population variance, or NaN if there are no values
+	 */
+	public double getVariance() {
+		return count == 0 ? Double.NaN : m2 / count;
+	}
+
+	/**
+	 * @return the population standard deviation, or NaN if there are no
+	 *         values
+	 */
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @return the standard error of the mean, using the sample variance, or
+	 *         NaN if there are less than two values
+	 */
+	public double getStandardError() {
+		return count < 2 ? Double.NaN : Math.sqrt(m2 / (count - 1) / count);
+	}
+
+	/**
+	 * @return the smallest value, or positive infinity if there are no values
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the largest value, or negative infinity if there are no values
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	public double getSum() {
+		return mean * count;
+	}
+
+	public String toString() {
+		return "n=" + count + " mean=" + getMean() + " sd=" + getStdDev()
+				+ " min=" + min + " max=" + max;
+	}
+}
@@ -0,0 +1,574 @@
+package negotiator.group11;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the metrics of our test reports from tournament results: the
+ * agreements, approvals, distances to the Nash solution and the Pareto
+ * frontier, social welfare, utilities, rounds and running time, per opponent,
+ * domain type and round limit.
+ *
+ * The results are read into one array per metric, so the aggregation is a
+ * tight loop over primitive arrays that is divided over several threads. Our
+ * agent is the first party of every session; the opponent of a session is
+ * identified by the agents and configs of the other parties. Like in the
+ * reports, the distances, welfare, utilities and rounds only count sessions
+ * with an agreement.
+ *
+ * Usage: TournamentAnalytics storeDirectory outputDirectory
+ * [templateDirectory] [threads]
+ *
+ * For every round limit and metric a csv file is written with a row per
+ * opponent, named like the figures in docs/Part2/images, together with a
+ * gnuplot script that draws the figures.
+ *
+ * The running time and our utility also get approximate quantiles from a
+ * {@link QuantileSketch} per group, which are merged like the other
+ * statistics.
+ */
+public class TournamentAnalytics {
+
+	/**
+	 * How much the interests of the parties of a session oppose, see
+	 * {@link ParetoFrontier#getOpposition()}
+	 */
+	public enum DomainType {
+		COOPERATIVE, MODERATE, COMPETITIVE, UNKNOWN;
+
+		/** Opposition from which a domain counts as moderate */
+		private static final double moderateOpposition = 0.15;
+		/** Opposition from which a domain counts as competitive */
+		private static final double competitiveOpposition = 0.3;
+
+		public static DomainType of(double opposition) {
+			if (opposition < moderateOpposition)
+				return COOPERATIVE;
+			if (opposition < competitiveOpposition)
+				return MODERATE;
+			return COMPETITIVE;
+		}
+	}
+
+	/** Values kept per level of the quantile sketches */
+	private static final int quantileSketchSize = 200;
+
+	/**
+	 * The aggregated metrics of a group of sessions
+	 */
+	public static class Aggregate {
+		public long sessions;
+		public long agreements;
+		/** Offers accepted by our agent */
+		public final StreamingStatistics approvals = new StreamingStatistics();
+		public final StreamingStatistics durationMillis = new StreamingStatistics();
+		/** Session durations are heavy tailed, so their quantiles are kept */
+		public final QuantileSketch durationQuantiles = new QuantileSketch(
+				quantileSketchSize);
+		public final StreamingStatistics rounds = new StreamingStatistics();
+		public final StreamingStatistics paretoDistance = new StreamingStatistics();
+		public final StreamingStatistics nashDistance = new StreamingStatistics();
+		public final StreamingStatistics socialWelfare = new StreamingStatistics();
+		public final StreamingStatistics ourUtility = new StreamingStatistics();
+		public final QuantileSketch ourUtilityQuantiles = new QuantileSketch(
+				quantileSketchSize);
+		/** Mean utility of the other parties */
+		public final StreamingStatistics opponentUtility = new StreamingStatistics();
+		/** Lowest utility of any party */
+		public final StreamingStatistics minUtility = new StreamingStatistics();
+		/** Highest utility of any party */
+		public final StreamingStatistics maxUtility = new StreamingStatistics();
+
+		public void merge(Aggregate other) {
+			sessions += other.sessions;
+			agreements += other.agreements;
+			approvals.merge(other.approvals);
+			durationMillis.merge(other.durationMillis);
+			durationQuantiles.merge(other.durationQuantiles);
+			rounds.merge(other.rounds);
+			paretoDistance.merge(other.paretoDistance);
+			nashDistance.merge(other.nashDistance);
+			socialWelfare.merge(other.socialWelfare);
+			ourUtility.merge(other.ourUtility);
+			ourUtilityQuantiles.merge(other.ourUtilityQuantiles);
+			opponentUtility.merge(other.opponentUtility);
+			minUtility.merge(other.minUtility);
+			maxUtility.merge(other.maxUtility);
+		}
+	}
+
+	/** Figures that show the mean and standard deviation of a metric */
+	private static final String[] statisticsFigures = { "approvals", "rounds",
+			"distance_pareto", "distance_nash", "social_welfare", "utils_min",
+			"utils_max" };
+
+	private final List<Scenario> scenarios;
+	/** Agents of the other parties per opponent index */
+	private final List<String> opponentNames = new ArrayList<String>();
+	private final Map<String, Integer> opponentIndices = new HashMap<String, Integer>();
+	/** Domain type per scenario and profiles */
+	private final Map<String, DomainType> domainTypeCache = new HashMap<String, DomainType>();
+
+	// One column per metric, one row per session
+	private int size;
+	private int[] roundLimits = new int[64];
+	private int[] opponents = new int[64];
+	private byte[] domainTypes = new byte[64];
+	private boolean[] agreements = new boolean[64];
+	private int[] approvals = new int[64];
+	private int[] rounds = new int[64];
+	private double[] durationMillis = new double[64];
+	private double[] paretoDistances = new double[64];
+	private double[] nashDistances = new double[64];
+	private double[] socialWelfare = new double[64];
+	private double[] ourUtilities = new double[64];
+	private double[] opponentUtilities = new double[64];
+	private double[] minUtilities = new double[64];
+	private double[] maxUtilities = new double[64];
+
+	/**
+	 * @param scenarios
+	 *            the scenarios of the sessions, to find their domain types
+	 */
+	public TournamentAnalytics(List<Scenario> scenarios) {
+		this.scenarios = scenarios;
+	}
+
+	/**
+	 * @return the amount of sessions added
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the agents of the opponent with the given index
+	 */
+	public String getOpponentName(int opponent) {
+		return opponentNames.get(opponent);
+	}
+
+	/**
+	 * Add the result of a session
+	 *
+	 * @param spec
+	 * @param r
+	 */
+	public void add(SessionSpec spec, HeadlessSession.SessionResult r) {
+		if (size == roundLimits.length)
+			grow();
+
+		int n = r.utilities.length;
+		double opponentSum = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int p = 0; p < n; p++) {
+			if (p > 0)
+				opponentSum += r.utilities[p];
+			min = Math.min(min, r.utilities[p]);
+			max = Math.max(max, r.utilities[p]);
+		}
+
+		roundLimits[size] = spec.roundDeadline;
+		opponents[size] = getOpponent(spec);
+		domainTypes[size] = (byte) getDomainType(spec).ordinal();
+		agreements[size] = r.hasAgreement();
+		approvals[size] = r.approvals[0];
+		rounds[size] = r.rounds;
+		durationMillis[size] = r.durationNanos / 1e6;
+		paretoDistances[size] = r.paretoDistance;
+		nashDistances[size] = r.nashDistance;
+		socialWelfare[size] = r.getSocialWelfare();
+		ourUtilities[size] = r.utilities[0];
+		opponentUtilities[size] = n > 1 ? opponentSum / (n - 1) : 0;
+		minUtilities[size] = min;
+		maxUtilities[size] = max;
+		size++;
+	}
+
+	private void grow() {
+		int capacity = roundLimits.length * 2;
+		roundLimits = Arrays.copyOf(roundLimits, capacity);
+		opponents = Arrays.copyOf(opponents, capacity);
+		domainTypes = Arrays.copyOf(domainTypes, capacity);
+		agreements = Arrays.copyOf(agreements, capacity);
+		approvals = Arrays.copyOf(approvals, capacity);
+		rounds = Arrays.copyOf(rounds, capacity);
+		durationMillis = Arrays.copyOf(durationMillis, capacity);
+		paretoDistances = Arrays.copyOf(paretoDistances, capacity);
+		nashDistances = Arrays.copyOf(nashDistances, capacity);
+		socialWelfare = Arrays.copyOf(socialWelfare, capacity);
+		ourUtilities = Arrays.copyOf(ourUtilities, capacity);
+		opponentUtilities = Arrays.copyOf(opponentUtilities, capacity);
+		minUtilities = Arrays.copyOf(minUtilities, capacity);
+		maxUtilities = Arrays.copyOf(maxUtilities, capacity);
+	}
+
+	/**
+	 * @return the index of the opponents of our agent, which are told apart
+	 *         by their agents and configs
+	 */
+	private int getOpponent(SessionSpec spec) {
+		StringBuilder name = new StringBuilder();
+		for (int p = 1; p < spec.agents.length; p++) {
+			if (p > 1)
+				name.append(" / ");
+			name.append(spec.agents[p]);
+			if (spec.configs[p] != null)
+				name.append(spec.configs[p].toMap());
+		}
+		Integer index = opponentIndices.get(name.toString());
+		if (index == null) {
+			index = opponentNames.size();
+			opponentNames.add(name.toString());
+			opponentIndices.put(name.toString(), index);
+		}
+		return index;
+	}
+
+	private DomainType getDomainType(SessionSpec spec) {
+		String key = spec.scenario + Arrays.toString(spec.profiles);
+		DomainType type = domainTypeCache.get(key);
+		if (type == null) {
+			type = DomainType.UNKNOWN;
+			try {
+				Scenario scenario = spec.getScenario(scenarios);
+				if (BidEncoder.supports(scenario.getDomain()))
+					type = DomainType.of(scenario.getParetoFrontier(
+							spec.profiles).getOpposition());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			domainTypeCache.put(key, type);
+		}
+		return type;
+	}
+
+	/**
+	 * @return the key of the group of a round limit, opponent and domain type
+	 */
+	private static long getGroup(int roundLimit, int opponent, int domainType) {
+		return ((long) roundLimit << 32) | (opponent << 2) | domainType;
+	}
+
+	private static int getRoundLimit(long group) {
+		return (int) (group >>> 32);
+	}
+
+	private static int getOpponent(long group) {
+		return (int) group >>> 2;
+	}
+
+	private static DomainType getDomainType(long group) {
+		return DomainType.values()[(int) group & 3];
+	}
+
+	/**
+	 * Aggregate all sessions per round limit, opponent and domain type
+	 *
+	 * @param threads
+	 *            the amount of threads to divide the sessions over
+	 * @return the aggregate per group, see {@link #getGroup(int, int, int)}
+	 * @throws Exception
+	 *             when a thread failed
+	 */
+	public Map<Long, Aggregate> aggregate(int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Map<Long, Aggregate>>> futures = new ArrayList<Future<Map<Long, Aggregate>>>();
+			int chunk = (size + threads - 1) / threads;
+			for (int from = 0; from < size; from += chunk) {
+				final int start = from;
+				final int end = Math.min(size, from + chunk);
+				futures.add(executor.submit(new Callable<Map<Long, Aggregate>>() {
+					@Override
+					public Map<Long, Aggregate> call() {
+						return aggregate(start, end);
+					}
+				}));
+			}
+
+			Map<Long, Aggregate> result = new HashMap<Long, Aggregate>();
+			for (Future<Map<Long, Aggregate>> f : futures)
+				for (Entry<Long, Aggregate> e : f.get().entrySet())
+					getAggregate(result, e.getKey()).merge(e.getValue());
+			return result;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private Map<Long, Aggregate> aggregate(int start, int end) {
+		Map<Long, Aggregate> result = new HashMap<Long, Aggregate>();
+		for (int i = start; i < end; i++) {
+			Aggregate a = getAggregate(result,
+					getGroup(roundLimits[i], opponents[i], domainTypes[i]));
+			a.sessions++;
+			a.approvals.add(approvals[i]);
+			a.durationMillis.add(durationMillis[i]);
+			a.durationQuantiles.add(durationMillis[i]);
+			if (!agreements[i])
+				continue;
+
+			a.agreements++;
+			a.rounds.add(rounds[i]);
+			if (!Double.isNaN(paretoDistances[i]))
+				a.paretoDistance.add(paretoDistances[i]);
+			if (!Double.isNaN(nashDistances[i]))
+				a.nashDistance.add(nashDistances[i]);
+			a.ourUtility.add(ourUtilities[i]);
+			a.ourUtilityQuantiles.add(ourUtilities[i]);
+			a.opponentUtility.add(opponentUtilities[i]);
+			a.socialWelfare.add(socialWelfare[i]);
+			a.minUtility.add(minUtilities[i]);
+			a.maxUtility.add(maxUtilities[i]);
+		}
+		return result;
+	}
+
+	private static Aggregate getAggregate(Map<Long, Aggregate> aggregates,
+			long group) {
+		Aggregate a = aggregates.get(group);
+		if (a == null) {
+			a = new Aggregate();
+			aggregates.put(group, a);
+		}
+		return a;
+	}
+
+	/**
+	 * Write the dataset of every figure of the reports, and a gnuplot script
+	 * that draws them
+	 *
+	 * @param aggregates
+	 *            the result of {@link #aggregate(int)}
+	 * @param directory
+	 * @throws IOException
+	 */
+	public void write(Map<Long, Aggregate> aggregates, File directory)
+			throws IOException {
+		directory.mkdirs();
+		TreeSet<Integer> roundLimits = new TreeSet<Integer>();
+		for (long group : aggregates.keySet())
+			roundLimits.add(getRoundLimit(group));
+
+		List<String> figures = new ArrayList<String>();
+		for (int limit : roundLimits) {
+			// Per opponent over all domain types, and per domain type
+			Aggregate[] total = new Aggregate[opponentNames.size()];
+			Aggregate[][] perType = new Aggregate[DomainType.values().length][opponentNames
+					.size()];
+			for (Entry<Long, Aggregate> e : aggregates.entrySet()) {
+				long group = e.getKey();
+				if (getRoundLimit(group) != limit)
+					continue;
+				int opponent = getOpponent(group);
+				if (total[opponent] == null)
+					total[opponent] = new Aggregate();
+				total[opponent].merge(e.getValue());
+				perType[getDomainType(group).ordinal()][opponent] = e.getValue();
+			}
+
+			PrintWriter out = new PrintWriter(new File(directory, limit
+					+ "_agreements.csv"), "UTF-8");
+			out.println("opponent,sessions,agreements,fraction");
+			for (int o = 0; o < total.length; o++)
+				if (total[o] != null)
+					out.println(getLabel(o) + "," + total[o].sessions + ","
+							+ total[o].agreements + ","
+							+ (double) total[o].agreements / total[o].sessions);
+			out.close();
+
+			for (String metric : statisticsFigures) {
+				writeStatistics(directory, limit + "_" + metric, total, metric);
+				figures.add(limit + "_" + metric);
+			}
+
+			out = new PrintWriter(new File(directory, limit + "_time_log.csv"),
+					"UTF-8");
+			out.println("opponent,mean_ms,log10_mean_ms,median_ms,p90_ms,p99_ms");
+			for (int o = 0; o < total.length; o++)
+				if (total[o] != null)
+					out.println(getLabel(o) + ","
+							+ total[o].durationMillis.getMean() + ","
+							+ Math.log10(total[o].durationMillis.getMean())
+							+ "," + total[o].durationQuantiles.getMedian()
+							+ "," + total[o].durationQuantiles.getQuantile(0.9)
+							+ ","
+							+ total[o].durationQuantiles.getQuantile(0.99));
+			out.close();
+
+			for (DomainType type : DomainType.values()) {
+				Aggregate[] row = perType[type.ordinal()];
+				if (type == DomainType.UNKNOWN || isEmpty(row))
+					continue;
+				out = new PrintWriter(new File(directory, limit
+						+ "_utils_domain_" + type.name().toLowerCase() + ".csv"),
+						"UTF-8");
+				out.println("opponent,our_mean,our_sd,opponent_mean,opponent_sd,n,"
+						+ "our_median,our_p10,our_p90");
+				for (int o = 0; o < row.length; o++)
+					if (row[o] != null)
+						out.println(getLabel(o) + ","
+								+ row[o].ourUtility.getMean() + ","
+								+ row[o].ourUtility.getStdDev() + ","
+								+ row[o].opponentUtility.getMean() + ","
+								+ row[o].opponentUtility.getStdDev() + ","
+								+ row[o].ourUtility.getCount() + ","
+								+ row[o].ourUtilityQuantiles.getMedian() + ","
+								+ row[o].ourUtilityQuantiles.getQuantile(0.1)
+								+ ","
+								+ row[o].ourUtilityQuantiles.getQuantile(0.9));
+				out.close();
+			}
+		}
+
+		PrintWriter out = new PrintWriter(
+				new File(directory, "opponents.csv"), "UTF-8");
+		out.println("opponent,configs");
+		for (int o = 0; o < opponentNames.size(); o++)
+			out.println(getLabel(o) + ",\"" + opponentNames.get(o) + "\"");
+		out.close();
+
+		writePlotScript(new File(directory, "plots.gp"), roundLimits, figures);
+	}
+
+	private static boolean isEmpty(Aggregate[] aggregates) {
+		for (Aggregate a : aggregates)
+			if (a != null)
+				return false;
+		return true;
+	}
+
+	private static String getLabel(int opponent) {
+		return "Opponent " + (opponent + 1);
+	}
+
+	/**
+	 * Write the mean and standard deviation of a metric per opponent
+	 */
+	private void writeStatistics(File directory, String name,
+			Aggregate[] aggregates, String metric) throws IOException {
+		PrintWriter out = new PrintWriter(new File(directory, name + ".csv"),
+				"UTF-8");
+		out.println("opponent,mean,sd,n");
+		for (int o = 0; o < aggregates.length; o++) {
+			if (aggregates[o] == null)
+				continue;
+			StreamingStatistics s = getMetric(aggregates[o], metric);
+			out.println(getLabel(o) + "," + s.getMean() + "," + s.getStdDev()
+					+ "," + s.getCount());
+		}
+		out.close();
+	}
+
+	private static StreamingStatistics getMetric(Aggregate a, String metric) {
+		switch (metric) {
+		case "approvals":
+			return a.approvals;
+		case "rounds":
+			return a.rounds;
+		case "distance_pareto":
+			return a.paretoDistance;
+		case "distance_nash":
+			return a.nashDistance;
+		case "social_welfare":
+			return a.socialWelfare;
+		case "utils_min":
+			return a.minUtility;
+		case "utils_max":
+			return a.maxUtility;
+		default:
+			throw new IllegalArgumentException("Unknown metric " + metric);
+		}
+	}
+
+	private static void writePlotScript(File file, TreeSet<Integer> roundLimits,
+			List<String> figures) throws IOException {
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		try {
+			out.println("set datafile separator ','");
+			out.println("set terminal png size 800,500");
+			out.println("set style fill solid 0.5 border");
+			out.println("set xtics rotate by -45");
+			out.println("set key outside");
+			out.println();
+			out.println("set style data histograms");
+			out.println("set style histogram errorbars gap 1");
+			for (String f : figures) {
+				out.println("set output '" + f + ".png'");
+				out.println("plot '" + f
+						+ ".csv' every ::1 using 2:3:xtic(1) notitle");
+			}
+			out.println();
+			out.println("set style histogram clustered");
+			for (int limit : roundLimits) {
+				out.println("set output '" + limit + "_agreements.png'");
+				out.println("plot '" + limit
+						+ "_agreements.csv' every ::1 using 4:xtic(1) notitle");
+				out.println("set output '" + limit + "_time_log.png'");
+				out.println("set logscale y");
+				out.println("plot '" + limit
+						+ "_time_log.csv' every ::1 using 2:xtic(1) notitle");
+				out.println("unset logscale y");
+				for (DomainType type : DomainType.values()) {
+					String name = limit + "_utils_domain_"
+							+ type.name().toLowerCase();
+					if (new File(file.getParentFile(), name + ".csv").exists()) {
+						out.println("set output '" + name + ".png'");
+						out.println("plot '" + name
+								+ ".csv' every ::1 using 2:xtic(1) title 'Group 11', '' every ::1 using 4 title 'Opponent'");
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		File storeDirectory = new File(args[0]);
+		File outputDirectory = new File(args[1]);
+		List<Scenario> scenarios = Scenario.loadAll(new File(
+				args.length > 2 ? args[2] : Scenario.DEFAULT_TEMPLATE_DIRECTORY));
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime
+				.getRuntime().availableProcessors();
+
+		long start = System.currentTimeMillis();
+		final TournamentAnalytics analytics = new TournamentAnalytics(scenarios);
+		ResultStore store = new ResultStore(storeDirectory);
+		try {
+			store.replay(scenarios, new TournamentCoordinator.ResultListener() {
+				@Override
+				public void sessionCompleted(SessionSpec spec,
+						HeadlessSession.SessionResult result) {
+					analytics.add(spec, result);
+				}
+
+				@Override
+				public void sessionFailed(SessionSpec spec) {
+				}
+			});
+		} finally {
+			store.close();
+		}
+		long read = System.currentTimeMillis();
+
+		analytics.write(analytics.aggregate(threads), outputDirectory);
+		System.out.println("Read " + analytics.size() + " sessions in "
+				+ (read - start) + " ms, aggregated and wrote them in "
+				+ (System.currentTimeMillis() - read) + " ms");
+	}
+}
@@ -0,0 +1,441 @@
+package negotiator.group11;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import negotiator.Domain;
+
+/**
+ * Runs a tournament of headless sessions in separate worker processes, so the
+ * sessions do not share a heap and garbage collector.
+ *
+ * The coordinator listens on a local socket and starts the workers, which
+ * connect to it and ask for one session at a time (see
+ * {@link TournamentWorker}). The sessions are divided over a queue per
+ * worker; a worker with an empty queue steals from the end of the longest
+ * other queue. Every result is passed to the {@link ResultListener} as soon
+ * as it arrives. When a worker dies, its running session is queued again, up
+ * to maxAttempts times, and a new worker is started in its place.
+ *
+ * Workers on other machines can connect as well, when the coordinator is
+ * bound to an address they can reach.
+ *
+ * Usage: TournamentCoordinator [workers] [templateDirectory] [port]
+ * [storeDirectory] [opponent...]
+ *
+ * With a store directory, every result is added to a {@link ResultStore} and
+ * the sessions that are already in it are skipped, so an interrupted
+ * tournament can be resumed. The opponents are class names of genius parties;
+ * by default our agent plays against itself and against the agent of the
+ * first deliverable.
+ */
+public class TournamentCoordinator {
+
+	/** A worker asks for a session */
+	static final byte MSG_REQUEST = 1;
+	/** A worker sends the result of its session */
+	static final byte MSG_RESULT = 2;
+	/** A worker could not run its session */
+	static final byte MSG_FAILED = 3;
+	/** The coordinator sends a session */
+	static final byte MSG_SESSION = 4;
+	/** The coordinator has no sessions left */
+	static final byte MSG_DONE = 5;
+
+	/** Times a session is started before it counts as failed */
+	private static final int maxAttempts = 3;
+	/** Interval at which the coordinator checks that some worker is alive */
+	private static final long workerCheckMillis = 1000;
+
+	/**
+	 * Receives the outcome of every session, on the thread of the worker
+	 * connection but never concurrently
+	 */
+	public interface ResultListener {
+		void sessionCompleted(SessionSpec spec,
+				HeadlessSession.SessionResult result);
+
+		/** Called when a session failed maxAttempts times */
+		void sessionFailed(SessionSpec spec);
+	}
+
+	private final List<Scenario> scenarios;
+	private final File templateDirectory;
+	private final int workers;
+	private final ServerSocket server;
+	private final ResultListener listener;
+
+	/** Sessions that have not been handed out, per worker slot */
+	private final List<ArrayDeque<SessionSpec>> queues = new ArrayList<ArrayDeque<SessionSpec>>();
+	private final HashMap<Integer, Integer> attempts = new HashMap<Integer, Integer>();
+	private final List<Process> processes = new ArrayList<Process>();
+	/** Sessions that did not complete or fail yet */
+	private int remaining;
+	private int connectedWorkers;
+	private int nextSlot;
+	/** New workers that may still be started in place of dead ones */
+	private int respawns;
+
+	/**
+	 * @param templateDirectory
+	 *            the directory the scenarios of the sessions are loaded from,
+	 *            by the coordinator and the workers
+	 * @param workers
+	 *            the amount of worker processes to start; with 0 the
+	 *            coordinator waits for workers that are started separately
+	 * @param bindAddress
+	 *            the address to listen on
+	 * @param port
+	 *            the port to listen on, or 0 for any free port
+	 * @param listener
+	 * @throws IOException
+	 *             when the port can not be opened
+	 */
+	public TournamentCoordinator(File templateDirectory, int workers,
+			InetAddress bindAddress, int port, ResultListener listener)
+			throws IOException {
+		this.templateDirectory = templateDirectory;
+		this.scenarios = Scenario.loadAll(templateDirectory);
+		this.workers = workers;
+		this.listener = listener;
+		this.server = new ServerSocket(port, 50, bindAddress);
+		this.respawns = workers * maxAttempts;
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Run all sessions and wait until every session completed or failed
+	 *
+	 * @param sessions
+	 * @throws IOException
+	 *             when the workers can not be started
+	 * @throws InterruptedException
+	 */
+	public void run(List<SessionSpec> sessions) throws IOException,
+			InterruptedException {
+		synchronized (this) {
+			for (int w = 0; w < Math.max(1, workers); w++)
+				queues.add(new ArrayDeque<SessionSpec>());
+			for (int i = 0; i < sessions.size(); i++)
+				queues.get(i % queues.size()).add(sessions.get(i));
+			remaining = sessions.size();
+		}
+
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				acceptWorkers();
+			}
+		}, "TournamentCoordinator");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		try {
+			for (int w = 0; w < workers; w++)
+				startWorker();
+
+			synchronized (this) {
+				while (remaining > 0) {
+					wait(workerCheckMillis);
+					// Workers that die before they connect are not noticed
+					// otherwise
+					if (workers > 0 && connectedWorkers == 0
+							&& !isAnyWorkerAlive())
+						replaceWorker();
+				}
+			}
+		} finally {
+			server.close();
+			synchronized (this) {
+				for (Process p : processes)
+					p.destroy();
+			}
+		}
+	}
+
+	private void acceptWorkers() {
+		while (!server.isClosed()) {
+			try {
+				final Socket socket = server.accept();
+				final int slot;
+				synchronized (this) {
+					slot = nextSlot++ % queues.size();
+					connectedWorkers++;
+				}
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						serveWorker(socket, slot);
+					}
+				}, "Worker " + socket.getRemoteSocketAddress()).start();
+			} catch (IOException e) {
+				if (!server.isClosed())
+					e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Hand out sessions to a worker and collect its results until there is
+	 * nothing left or the worker dies
+	 */
+	private void serveWorker(Socket socket, int slot) {
+		SessionSpec running = null;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+
+			while (true) {
+				byte message = in.readByte();
+				if (message == MSG_REQUEST) {
+					running = takeSession(slot);
+					if (running == null) {
+						out.writeByte(MSG_DONE);
+						out.flush();
+						return;
+					}
+					out.writeByte(MSG_SESSION);
+					running.writeTo(out);
+					out.flush();
+				} else if (message == MSG_RESULT && running != null) {
+					HeadlessSession.SessionResult result = HeadlessSession.SessionResult
+							.readFrom(in, getDomain(running));
+					completed(running, result);
+					running = null;
+				} else if (message == MSG_FAILED && running != null) {
+					retry(running, slot);
+					running = null;
+				} else {
+					throw new IOException("Unexpected message " + message);
+				}
+			}
+		} catch (IOException e) {
+			// The worker died or sent garbage; its session is run again
+			System.out.println("WARNING :: LOST WORKER :: " + e);
+			if (running != null)
+				retry(running, slot);
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			workerLeft();
+		}
+	}
+
+	private Domain getDomain(SessionSpec spec) throws IOException {
+		try {
+			return spec.getScenario(scenarios).getDomain();
+		} catch (Exception e) {
+			throw new IOException("Can not load the domain of " + spec, e);
+		}
+	}
+
+	/**
+	 * Take a session from the queue of a slot, or steal one from the longest
+	 * other queue. Waits while all queues are empty but sessions may still be
+	 * queued again.
+	 *
+	 * @return the session, or null when all sessions are done
+	 */
+	private synchronized SessionSpec takeSession(int slot) {
+		while (remaining > 0) {
+			SessionSpec own = queues.get(slot).pollFirst();
+			if (own != null)
+				return own;
+
+			ArrayDeque<SessionSpec> longest = queues.get(slot);
+			for (ArrayDeque<SessionSpec> q : queues)
+				if (q.size() > longest.size())
+					longest = q;
+			if (!longest.isEmpty())
+				return longest.pollLast();
+
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private synchronized void completed(SessionSpec spec,
+			HeadlessSession.SessionResult result) {
+		listener.sessionCompleted(spec, result);
+		remaining--;
+		notifyAll();
+	}
+
+	/**
+	 * Queue a session that did not complete again, or give up on it after
+	 * maxAttempts
+	 */
+	private synchronized void retry(SessionSpec spec, int slot) {
+		Integer count = attempts.get(spec.id);
+		count = count == null ? 1 : count + 1;
+		attempts.put(spec.id, count);
+
+		if (count < maxAttempts) {
+			queues.get(slot).addFirst(spec);
+		} else {
+			listener.sessionFailed(spec);
+			remaining--;
+		}
+		notifyAll();
+	}
+
+	private synchronized void workerLeft() {
+		connectedWorkers--;
+		if (remaining > 0 && workers > 0)
+			replaceWorker();
+	}
+
+	/**
+	 * Start a new worker in place of one that died, or give up on all queued
+	 * sessions when no worker is left to run them
+	 */
+	private synchronized void replaceWorker() {
+		if (respawns > 0) {
+			respawns--;
+			try {
+				startWorker();
+				return;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		if (connectedWorkers == 0 && !isAnyWorkerAlive()) {
+			for (ArrayDeque<SessionSpec> q : queues) {
+				for (SessionSpec spec : q)
+					listener.sessionFailed(spec);
+				remaining -= q.size();
+				q.clear();
+			}
+			notifyAll();
+		}
+	}
+
+	private synchronized boolean isAnyWorkerAlive() {
+		for (Process p : processes) {
+			try {
+				p.exitValue();
+			} catch (IllegalThreadStateException e) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized void startWorker() throws IOException {
+		String java = System.getProperty("java.home") + File.separator
+				+ "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+				System.getProperty("java.class.path"),
+				TournamentWorker.class.getName(), "localhost",
+				String.valueOf(getPort()), templateDirectory.getPath());
+		builder.inheritIO();
+		processes.add(builder.start());
+	}
+
+	/**
+	 * @param sessions
+	 * @param store
+	 *            the results of earlier runs, or null
+	 * @return the sessions of which the result is not in the store
+	 */
+	public static List<SessionSpec> getPendingSessions(
+			List<SessionSpec> sessions, ResultStore store) {
+		List<SessionSpec> result = new ArrayList<SessionSpec>();
+		for (SessionSpec spec : sessions)
+			if (store == null || !store.contains(spec))
+				result.add(spec);
+		return result;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int workers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime
+				.getRuntime().availableProcessors();
+		File directory = new File(args.length > 1 ? args[1]
+				: Scenario.DEFAULT_TEMPLATE_DIRECTORY);
+		int port = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		final ResultStore store = args.length > 3 ? new ResultStore(new File(
+				args[3])) : null;
+
+		List<String> opponents = args.length > 4 ? Arrays.asList(args).subList(
+				4, args.length) : Arrays.asList(Group11.class.getName(),
+				ReferenceGroup11.class.getName());
+
+		final List<Scenario> scenarios = Scenario.loadAll(directory);
+		final List<SessionSpec> sessions = getPendingSessions(
+				SessionSpec.getMatrix(scenarios, new int[] { 18, 180 }, 3, 3,
+						opponents), store);
+		if (store != null)
+			System.out.println("Resuming with " + store.getKeys().size()
+					+ " stored results");
+
+		TournamentCoordinator coordinator = new TournamentCoordinator(
+				directory, workers, InetAddress.getLoopbackAddress(), port,
+				new ResultListener() {
+					private int done;
+
+					@Override
+					public void sessionCompleted(SessionSpec spec,
+							HeadlessSession.SessionResult r) {
+						done++;
+						System.out.println(String.format(
+								"%d/%d %s rounds=%d agreement=%b utilities=%s",
+								done, sessions.size(), spec, r.rounds,
+								r.hasAgreement(),
+								Arrays.toString(r.utilities)));
+						if (store == null)
+							return;
+						try {
+							store.add(spec, r, spec.getScenario(scenarios)
+									.getDomain());
+						} catch (Exception e) {
+							System.out.println("WARNING :: RESULT NOT STORED :: "
+									+ spec);
+							e.printStackTrace();
+						}
+					}
+
+					@Override
+					public void sessionFailed(SessionSpec spec) {
+						done++;
+						System.out.println(done + "/" + sessions.size() + " "
+								+ spec + " FAILED");
+					}
+				});
+		System.out.println("Listening on port " + coordinator.getPort());
+
+		long start = System.currentTimeMillis();
+		try {
+			coordinator.run(sessions);
+		} finally {
+			if (store != null)
+				store.close();
+		}
+		System.out.println("Done in " + (System.currentTimeMillis() - start)
+				+ " ms");
+	}
+}
@@ -0,0 +1,59 @@
+package negotiator.group11;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * A worker process of a {@link TournamentCoordinator}. It connects to the
+ * coordinator, and asks for and runs one session at a time until the
+ * coordinator has none left. Every result is sent back as soon as its session
+ * ends.
+ *
+ * Usage: TournamentWorker host port [templateDirectory]
+ */
+public class TournamentWorker {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: TournamentWorker host port "
+					+ "[templateDirectory]");
+			return;
+		}
+		List<Scenario> scenarios = Scenario.loadAll(new File(
+				args.length > 2 ? args[2] : Scenario.DEFAULT_TEMPLATE_DIRECTORY));
+
+		Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+
+			while (true) {
+				out.writeByte(TournamentCoordinator.MSG_REQUEST);
+				out.flush();
+				if (in.readByte() != TournamentCoordinator.MSG_SESSION)
+					return;
+
+				SessionSpec spec = SessionSpec.readFrom(in);
+				HeadlessSession.SessionResult result;
+				try {
+					result = spec.run(scenarios);
+				} catch (Exception e) {
+					e.printStackTrace();
+					out.writeByte(TournamentCoordinator.MSG_FAILED);
+					continue;
+				}
+				out.writeByte(TournamentCoordinator.MSG_RESULT);
+				result.writeTo(out, spec.getScenario(scenarios).getDomain());
+			}
+		} finally {
+			socket.close();
+		}
+	}
+}
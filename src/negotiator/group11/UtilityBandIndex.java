@@ -0,0 +1,213 @@
+package negotiator.group11;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import negotiator.bidding.BidDetails;
+
+/**
+ * Index on the outcome space that partitions all bids into fixed width bands
+ * of own utility.
+ *
+ * For every band the bids are kept sorted on utility, together with the
+ * nearest non-empty band below and above it. Looking up a bid near a utility
+ * or at random in a range only touches the bands involved, instead of the
+ * whole outcome space.
+ */
+public class UtilityBandIndex extends OutcomeSearch {
+
+	private static final Comparator<BidDetails> ON_UTILITY = new Comparator<BidDetails>() {
+		@Override
+		public int compare(BidDetails l, BidDetails r) {
+			return Double.compare(l.getMyUndiscountedUtil(),
+					r.getMyUndiscountedUtil());
+		}
+	};
+
+	private final double bandWidth;
+	private final int numberOfBands;
+	private final BidDetails[][] bands;
+	/** Nearest non-empty band at or below each band, or -1 */
+	private final int[] previousNonEmpty;
+	/** Nearest non-empty band at or above each band, or numberOfBands */
+	private final int[] nextNonEmpty;
+	/** Amount of bids in all bands below each band */
+	private final int[] countBefore;
+	private final int size;
+
+	/**
+	 * @param outcomes
+	 *            all possible bids with their own utility
+	 * @param bandWidth
+	 *            width of a band in utility
+	 */
+	public UtilityBandIndex(List<BidDetails> outcomes, double bandWidth) {
+		this.bandWidth = bandWidth;
+		this.numberOfBands = (int) Math.ceil(1 / bandWidth) + 1;
+
+		List<List<BidDetails>> lists = new ArrayList<List<BidDetails>>();
+		for (int b = 0; b < numberOfBands; b++)
+			lists.add(new ArrayList<BidDetails>());
+		for (BidDetails bd : outcomes)
+			lists.get(getBand(bd.getMyUndiscountedUtil())).add(bd);
+
+		bands = new BidDetails[numberOfBands][];
+		countBefore = new int[numberOfBands + 1];
+		for (int b = 0; b < numberOfBands; b++) {
+			List<BidDetails> list = lists.get(b);
+			Collections.sort(list, ON_UTILITY);
+			bands[b] = list.toArray(new BidDetails[list.size()]);
+			countBefore[b + 1] = countBefore[b] + bands[b].length;
+		}
+		size = countBefore[numberOfBands];
+
+		previousNonEmpty = new int[numberOfBands];
+		int last = -1;
+		for (int b = 0; b < numberOfBands; b++) {
+			if (bands[b].length > 0)
+				last = b;
+			previousNonEmpty[b] = last;
+		}
+
+		nextNonEmpty = new int[numberOfBands];
+		last = numberOfBands;
+		for (int b = numberOfBands - 1; b >= 0; b--) {
+			if (bands[b].length > 0)
+				last = b;
+			nextNonEmpty[b] = last;
+		}
+	}
+
+	private int getBand(double utility) {
+		int band = (int) (utility / bandWidth);
+		return Math.max(0, Math.min(band, numberOfBands - 1));
+	}
+
+	/**
+	 * Get the bid with the utility closest to the given utility
+	 *
+	 * @param utility
+	 * @return the nearest bid, or null if there are no bids
+	 */
+	@Override
+	public BidDetails getBidNearUtility(double utility) {
+		int band = getBand(utility);
+
+		BidDetails best = null;
+		if (bands[band].length > 0)
+			best = nearestInBand(bands[band], utility);
+		// The nearest bid can also be at the edge of a neighbouring band
+		if (band > 0 && previousNonEmpty[band - 1] >= 0)
+			best = closest(best, last(bands[previousNonEmpty[band - 1]]),
+					utility);
+		if (band < numberOfBands - 1 && nextNonEmpty[band + 1] < numberOfBands)
+			best = closest(best, bands[nextNonEmpty[band + 1]][0], utility);
+		return best;
+	}
+
+	/**
+	 * Get a random bid with a utility in [lowerbound, upperbound]
+	 *
+	 * @return a random bid, or null when there are no bids in the range
+	 */
+	@Override
+	public BidDetails getRandomBidInRange(double lowerbound,
+			double upperbound, Random random) {
+		int start = getRangeStart(lowerbound);
+		int end = getRangeEnd(upperbound);
+		if (end <= start)
+			return null;
+		return get(start + random.nextInt(end - start));
+	}
+
+	@Override
+	public BidDetails getMaxBid() {
+		int band = previousNonEmpty[numberOfBands - 1];
+		return band < 0 ? null : last(bands[band]);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the bid at a position in the utility ordering of all bids
+	 */
+	private BidDetails get(int index) {
+		int band = Arrays.binarySearch(countBefore, index);
+		if (band < 0)
+			band = -band - 2;
+		else
+			// Skip empty bands that start at the same position
+			while (bands[band].length == 0)
+				band++;
+		return bands[band][index - countBefore[band]];
+	}
+
+	/**
+	 * Position of the first bid with a utility >= lowerbound
+	 */
+	private int getRangeStart(double lowerbound) {
+		int band = getBand(lowerbound);
+		return countBefore[band] + firstAtLeast(bands[band], lowerbound);
+	}
+
+	/**
+	 * Position after the last bid with a utility <= upperbound
+	 */
+	private int getRangeEnd(double upperbound) {
+		int band = getBand(upperbound);
+		return countBefore[band] + firstAbove(bands[band], upperbound);
+	}
+
+	private static int firstAbove(BidDetails[] band, double utility) {
+		int low = 0, high = band.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (band[mid].getMyUndiscountedUtil() <= utility)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private static int firstAtLeast(BidDetails[] band, double utility) {
+		int low = 0, high = band.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (band[mid].getMyUndiscountedUtil() < utility)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private static BidDetails nearestInBand(BidDetails[] band, double utility) {
+		int i = firstAbove(band, utility);
+		if (i == 0)
+			return band[0];
+		if (i == band.length)
+			return band[i - 1];
+		return closest(band[i - 1], band[i], utility);
+	}
+
+	private static BidDetails closest(BidDetails a, BidDetails b,
+			double utility) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		return Math.abs(a.getMyUndiscountedUtil() - utility) <= Math.abs(b
+				.getMyUndiscountedUtil() - utility) ? a : b;
+	}
+
+	private static BidDetails last(BidDetails[] band) {
+		return band[band.length - 1];
+	}
+}
@@ -0,0 +1,139 @@
+package negotiator.group11;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size cache of utilities, keyed by the code of a bid from a
+ * {@link BidEncoder}.
+ *
+ * Every entry is tagged with the version of the model that computed it. An
+ * entry with an older version is treated as a miss and overwritten on the
+ * next put, so changing a model never requires clearing the cache. Utilities
+ * that never change can simply use a constant version.
+ *
+ * The table uses open addressing with a short probe window. When the window
+ * of a bid is full, an entry is evicted with the clock (second chance)
+ * algorithm: entries that were read since the hand last passed them survive
+ * one more round. Entries are only ever overwritten in place, so lookups can
+ * stop at the first empty slot.
+ */
+public class UtilityCache {
+
+	private static final long EMPTY = -1;
+	private static final int PROBES = 8;
+
+	private final long[] keys;
+	private final int[] versions;
+	private final double[] values;
+	private final boolean[] referenced;
+	private final int mask;
+	private int hand;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param capacity
+	 *            the maximum amount of entries, rounded up to a power of two
+	 */
+	public UtilityCache(int capacity) {
+		int size = Integer.highestOneBit(Math.max(PROBES, capacity - 1)) << 1;
+		keys = new long[size];
+		versions = new int[size];
+		values = new double[size];
+		referenced = new boolean[size];
+		mask = size - 1;
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/**
+	 * Get a cached utility
+	 *
+	 * @param code
+	 *            code of the bid
+	 * @param version
+	 *            the current version of the model
+	 * @return the utility, or NaN when it is not cached for this version
+	 */
+	public double get(long code, int version) {
+		int start = hash(code);
+		for (int i = 0; i < PROBES; i++) {
+			int slot = (start + i) & mask;
+			long key = keys[slot];
+			if (key == EMPTY)
+				break;
+			if (key == code) {
+				if (versions[slot] != version)
+					break;
+				referenced[slot] = true;
+				hits++;
+				return values[slot];
+			}
+		}
+		misses++;
+		return Double.NaN;
+	}
+
+	/**
+	 * Cache a utility
+	 *
+	 * @param code
+	 *            code of the bid
+	 * @param version
+	 *            the version of the model that computed the utility
+	 * @param utility
+	 */
+	public void put(long code, int version, double utility) {
+		if (code < 0)
+			return;
+
+		int start = hash(code);
+		int slot = -1;
+		for (int i = 0; i < PROBES; i++) {
+			int s = (start + i) & mask;
+			if (keys[s] == EMPTY || keys[s] == code) {
+				slot = s;
+				break;
+			}
+		}
+		if (slot < 0)
+			slot = evict(start);
+
+		keys[slot] = code;
+		versions[slot] = version;
+		values[slot] = utility;
+		referenced[slot] = false;
+	}
+
+	/**
+	 * Find a victim in the probe window using the clock algorithm
+	 */
+	private int evict(int start) {
+		while (true) {
+			int slot = (start + hand) & mask;
+			hand = (hand + 1) % PROBES;
+			if (!referenced[slot])
+				return slot;
+			referenced[slot] = false;
+		}
+	}
+
+	private int hash(long code) {
+		code ^= code >>> 33;
+		code *= 0xff51afd7ed558ccdL;
+		code ^= code >>> 33;
+		return (int) code & mask;
+	}
+
+	public int getCapacity() {
+		return keys.length;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,74 @@
+package negotiator.group11;
+
+import java.util.List;
+
+import negotiator.bidding.BidDetails;
+
+/**
+ * Evaluates the utility of encoded bids under a linear additive model, as a
+ * sum of one weighted evaluation per issue.
+ *
+ * By default the evaluations are kept in a flat {@link UtilityTable}. When
+ * the system property {@value #SPECIALIZE_PROPERTY} is set to true, a class
+ * is generated per set of evaluations instead, with the issues and
+ * evaluations baked in as constants (see {@link EvaluatorGenerator}).
+ * Domains with too many values for that still use a table.
+ */
+public abstract class UtilityEvaluator {
+
+	public static final String SPECIALIZE_PROPERTY = "negotiator.group11.specialize";
+
+	private static final boolean specialize = Boolean
+			.getBoolean(SPECIALIZE_PROPERTY);
+
+	/**
+	 * Create an evaluator
+	 *
+	 * @param cardinalities
+	 *            the amount of values per issue, in encoding order
+	 * @param evaluations
+	 *            the weighted evaluation per value index per issue
+	 * @return the evaluator
+	 */
+	public static UtilityEvaluator create(int[] cardinalities,
+			double[][] evaluations) {
+		if (specialize) {
+			UtilityEvaluator generated = EvaluatorGenerator.generate(
+					cardinalities, evaluations);
+			if (generated != null)
+				return generated;
+		}
+		return new UtilityTable(cardinalities, evaluations);
+	}
+
+	/**
+	 * @param code
+	 *            code of a bid as given by {@link BidEncoder#encode}
+	 * @return the utility of the bid
+	 */
+	public abstract double getUtility(long code);
+
+	/**
+	 * Compare the evaluator to the utilities genius determined for a sample of
+	 * the outcomes
+	 *
+	 * @param outcomes
+	 *            bids with their utility according to genius
+	 * @param encoder
+	 * @param samples
+	 *            the maximum amount of outcomes to compare, evenly spread
+	 * @return true iff all compared utilities are equal
+	 */
+	public boolean check(List<BidDetails> outcomes, BidEncoder encoder,
+			int samples) {
+		int step = Math.max(1, outcomes.size() / Math.max(1, samples));
+		for (int i = 0; i < outcomes.size(); i += step) {
+			BidDetails bd = outcomes.get(i);
+			long code = encoder.encode(bd.getBid());
+			if (code < 0
+					|| Math.abs(getUtility(code) - bd.getMyUndiscountedUtil()) > 1e-9)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,112 @@
+package negotiator.group11;
+
+import negotiator.issue.IssueDiscrete;
+import negotiator.utility.EvaluatorDiscrete;
+import negotiator.utility.UTILITYSPACETYPE;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * A linear additive utility space compiled into a flat table, so the utility
+ * of an encoded bid is a sum of one table entry per issue.
+ *
+ * The entry of a value is the weight of its issue times the evaluation of the
+ * value, as read from the genius utility space once. Spaces that are not
+ * linear additive over discrete issues can not be compiled.
+ */
+public class UtilityTable extends UtilityEvaluator {
+
+	private final int[] cardinalities;
+	/** Start of the entries of every issue in the table */
+	private final int[] offsets;
+	/** Weighted evaluation of every value of every issue */
+	private final double[] table;
+
+	/**
+	 * @param cardinalities
+	 *            the amount of values per issue, in encoding order
+	 * @param evaluations
+	 *            the weighted evaluation per value index per issue
+	 */
+	UtilityTable(int[] cardinalities, double[][] evaluations) {
+		this.cardinalities = cardinalities;
+		offsets = new int[cardinalities.length];
+		for (int i = 1; i < cardinalities.length; i++)
+			offsets[i] = offsets[i - 1] + cardinalities[i - 1];
+
+		int entries = 0;
+		for (int c : cardinalities)
+			entries += c;
+		table = new double[entries];
+		for (int i = 0; i < cardinalities.length; i++)
+			System.arraycopy(evaluations[i], 0, table, offsets[i],
+					cardinalities[i]);
+	}
+
+	/**
+	 * Compile a utility space
+	 *
+	 * @param utilitySpace
+	 * @param encoder
+	 *            encoder of the domain of the utility space
+	 * @return an evaluator of the space, or null if the space is not linear
+	 *         additive
+	 */
+	public static UtilityEvaluator compile(UtilitySpace utilitySpace,
+			BidEncoder encoder) {
+		if (utilitySpace.getType() != UTILITYSPACETYPE.LINEAR)
+			return null;
+
+		IssueDiscrete[] issues = encoder.getIssues();
+		int[] cardinalities = encoder.getCardinalities();
+		double[][] evaluations = new double[issues.length][];
+		for (int i = 0; i < issues.length; i++) {
+			int number = issues[i].getNumber();
+			if (!(utilitySpace.getEvaluator(number) instanceof EvaluatorDiscrete))
+				return null;
+			EvaluatorDiscrete evaluator = (EvaluatorDiscrete) utilitySpace
+					.getEvaluator(number);
+			double weight = utilitySpace.getWeight(number);
+
+			evaluations[i] = new double[cardinalities[i]];
+			for (int j = 0; j < cardinalities[i]; j++) {
+				try {
+					Double evaluation = evaluator.getEvaluation(issues[i]
+							.getValue(j));
+					evaluations[i][j] = evaluation == null ? 0 : weight
+							* evaluation;
+				} catch (Exception e) {
+					return null;
+				}
+			}
+		}
+		return create(cardinalities, evaluations);
+	}
+
+	/**
+	 * @param code
+	 *            code of a bid as given by {@link BidEncoder#encode}
+	 * @return the utility of the bid
+	 */
+	@Override
+	public double getUtility(long code) {
+		double utility = 0;
+		for (int i = 0; i < cardinalities.length; i++) {
+			utility += table[offsets[i] + (int) (code % cardinalities[i])];
+			code /= cardinalities[i];
+		}
+		return utility;
+	}
+
+	/**
+	 * @param valueIndices
+	 *            value index per issue, as given by
+	 *            {@link BidEncoder#getValueIndices}
+	 * @return the utility of the bid
+	 */
+	public double getUtility(int[] valueIndices) {
+		double utility = 0;
+		for (int i = 0; i < cardinalities.length; i++)
+			utility += table[offsets[i] + valueIndices[i]];
+		return utility;
+	}
+}
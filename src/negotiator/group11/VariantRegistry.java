@@ -0,0 +1,381 @@
+package negotiator.group11;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import negotiator.DeadlineType;
+import negotiator.Timeline;
+import negotiator.parties.NegotiationParty;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Compares versions and configurations of our agent side by side, in one
+ * headless tournament.
+ *
+ * Every variant is loaded in its own class loader, which loads the classes
+ * of negotiator.group11 itself and leaves the genius classes to the parent.
+ * Variants therefore do not share static state, and an older version of the
+ * agent, such as the one of the first deliverable, can be compared with the
+ * current one without swapping jars.
+ *
+ * All variants play the same schedule of sessions: the same scenario,
+ * profiles, round deadline, seed and turn position against the current
+ * agent with default settings. The sessions run in parallel. The report
+ * shows the utility, agreement rate and latency per action of every
+ * variant. For every variant it also shows the difference from the first
+ * variant, with a 95% confidence interval over the paired sessions.
+ *
+ * Usage: VariantRegistry [sessions] [threads] [variant...], where a variant
+ * is name[@classpath][,parameter=value...]. Without a classpath the current
+ * version is loaded, and the parameters set its {@link Group11Config}.
+ */
+public class VariantRegistry {
+
+	private static final int PARTIES = 3;
+	/** Normal quantile of a two sided 95% confidence interval */
+	private static final double z95 = 1.96;
+	private static final String agentPackage = "negotiator.group11.";
+	/** The compiled agent of the first deliverable, in its submission */
+	private static final String deliverable1 = "Deliverable/1/IN4010-12 Negotiation Assignment Group11.zip";
+
+	/**
+	 * Loads the classes of our agent from its own classpath before asking the
+	 * parent, and all other classes from the parent
+	 */
+	private static class IsolatingClassLoader extends URLClassLoader {
+
+		IsolatingClassLoader(URL[] classpath, ClassLoader parent) {
+			super(classpath, parent);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve)
+				throws ClassNotFoundException {
+			if (!name.startsWith(agentPackage))
+				return super.loadClass(name, resolve);
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null)
+					c = findClass(name);
+				if (resolve)
+					resolveClass(c);
+				return c;
+			}
+		}
+	}
+
+	/**
+	 * A version of the agent with a configuration
+	 */
+	public static class Variant {
+		final String name;
+		private final Constructor<?> constructor;
+		/** Config of the class loader of the variant, or null */
+		private final Object config;
+
+		/**
+		 * @param name
+		 * @param classpath
+		 *            where the classes of the version are loaded from
+		 * @param parameters
+		 *            parameters of the config, or null to use the constructor
+		 *            without config, which every version has
+		 * @throws ReflectiveOperationException
+		 *             when the version has no Group11 or config parameters
+		 */
+		Variant(String name, URL[] classpath, Map<String, Double> parameters)
+				throws ReflectiveOperationException {
+			this.name = name;
+			ClassLoader loader = new IsolatingClassLoader(classpath,
+					VariantRegistry.class.getClassLoader());
+			Class<?> party = loader.loadClass(agentPackage + "Group11");
+
+			if (parameters == null) {
+				config = null;
+				constructor = party.getConstructor(UtilitySpace.class,
+						Map.class, Timeline.class, long.class);
+				return;
+			}
+
+			Class<?> configClass = loader.loadClass(agentPackage
+					+ "Group11Config");
+			config = configClass.getConstructor().newInstance();
+			Method set = configClass.getMethod("set", String.class,
+					double.class);
+			for (Entry<String, Double> e : parameters.entrySet())
+				set.invoke(config, e.getKey(), e.getValue());
+			constructor = party.getConstructor(UtilitySpace.class, Map.class,
+					Timeline.class, long.class, configClass);
+		}
+
+		HeadlessSession.PartyFactory getFactory() {
+			return new HeadlessSession.PartyFactory() {
+				@Override
+				public NegotiationParty create(UtilitySpace utilitySpace,
+						Map<DeadlineType, Object> deadlines, Timeline timeline,
+						long randomSeed) {
+					try {
+						if (config == null)
+							return (NegotiationParty) constructor.newInstance(
+									utilitySpace, deadlines, timeline,
+									randomSeed);
+						return (NegotiationParty) constructor.newInstance(
+								utilitySpace, deadlines, timeline, randomSeed,
+								config);
+					} catch (ReflectiveOperationException e) {
+						throw new IllegalStateException("Can not create "
+								+ name, e);
+					}
+				}
+			};
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * The outcomes of a variant on the schedule, per session
+	 */
+	private static class Outcomes {
+		final double[] utilities;
+		final double[] agreements;
+		/** Mean chooseAction latency in milliseconds */
+		final double[] latencies;
+
+		Outcomes(int sessions) {
+			utilities = new double[sessions];
+			agreements = new double[sessions];
+			latencies = new double[sessions];
+		}
+	}
+
+	private final List<Variant> variants = new ArrayList<Variant>();
+	private final List<Scenario> scenarios;
+	private final int[] roundDeadlines;
+
+	public VariantRegistry(List<Scenario> scenarios, int[] roundDeadlines) {
+		this.scenarios = scenarios;
+		this.roundDeadlines = roundDeadlines;
+	}
+
+	/**
+	 * Register the current version of the agent with a config
+	 *
+	 * @param name
+	 * @param parameters
+	 *            the parameters that differ from the defaults
+	 * @return the variant
+	 */
+	public Variant register(String name, Map<String, Double> parameters)
+			throws ReflectiveOperationException, MalformedURLException {
+		return register(name, getCurrentClasspath(), parameters);
+	}
+
+	/**
+	 * Register a version of the agent that is compiled to another classpath
+	 *
+	 * @param name
+	 * @param classpath
+	 *            directories or jars with the classes of the version
+	 * @param parameters
+	 *            parameters of its config, or null for a version without
+	 *            config
+	 * @return the variant
+	 */
+	public Variant register(String name, URL[] classpath,
+			Map<String, Double> parameters) throws ReflectiveOperationException {
+		Variant v = new Variant(name, classpath, parameters);
+		variants.add(v);
+		return v;
+	}
+
+	private static URL[] getCurrentClasspath() throws MalformedURLException {
+		return toUrls(System.getProperty("java.class.path"));
+	}
+
+	private static URL[] toUrls(String classpath) throws MalformedURLException {
+		String[] paths = classpath.split(File.pathSeparator);
+		URL[] result = new URL[paths.length];
+		for (int i = 0; i < paths.length; i++)
+			result[i] = new File(paths[i]).toURI().toURL();
+		return result;
+	}
+
+	/**
+	 * Play the schedule with every variant and print the comparison
+	 *
+	 * @param sessions
+	 *            the length of the schedule
+	 * @param threads
+	 */
+	public void compare(int sessions, int threads) throws Exception {
+		List<Outcomes> outcomes = new ArrayList<Outcomes>();
+		List<List<Future<HeadlessSession.SessionResult>>> futures = new ArrayList<List<Future<HeadlessSession.SessionResult>>>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (final Variant v : variants) {
+				List<Future<HeadlessSession.SessionResult>> results = new ArrayList<Future<HeadlessSession.SessionResult>>();
+				for (int s = 0; s < sessions; s++) {
+					final int session = s;
+					results.add(executor
+							.submit(new Callable<HeadlessSession.SessionResult>() {
+								@Override
+								public HeadlessSession.SessionResult call()
+										throws Exception {
+									return runSession(v, session);
+								}
+							}));
+				}
+				futures.add(results);
+			}
+
+			for (List<Future<HeadlessSession.SessionResult>> results : futures) {
+				Outcomes o = new Outcomes(sessions);
+				for (int s = 0; s < sessions; s++) {
+					HeadlessSession.SessionResult r = results.get(s).get();
+					int position = s % PARTIES;
+					o.utilities[s] = r.utilities[position];
+					o.agreements[s] = r.hasAgreement() ? 1 : 0;
+					o.latencies[s] = r.totalLatencies[position]
+							/ Math.max(1, r.rounds) / 1e6;
+				}
+				outcomes.add(o);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		report(outcomes);
+	}
+
+	/**
+	 * Run a session of the schedule, where the variant takes the turn
+	 * position session % PARTIES and the other parties are the current agent
+	 * with the defaults
+	 */
+	private HeadlessSession.SessionResult runSession(Variant v, int session)
+			throws Exception {
+		Scenario scenario = scenarios.get(session % scenarios.size());
+		int deadline = roundDeadlines[(session / scenarios.size())
+				% roundDeadlines.length];
+		int offset = session / (scenarios.size() * roundDeadlines.length);
+
+		int[] profiles = new int[PARTIES];
+		for (int p = 0; p < PARTIES; p++)
+			profiles[p] = offset + p;
+		List<HeadlessSession.PartyFactory> factories = new ArrayList<HeadlessSession.PartyFactory>();
+		for (int p = 0; p < PARTIES; p++)
+			factories.add(p == session % PARTIES ? v.getFactory()
+					: HeadlessSession.GROUP11);
+
+		return new HeadlessSession(factories,
+				scenario.loadUtilitySpaces(profiles), deadline, session).run();
+	}
+
+	private void report(List<Outcomes> outcomes) {
+		Outcomes baseline = outcomes.get(0);
+		for (int v = 0; v < variants.size(); v++) {
+			Outcomes o = outcomes.get(v);
+			System.out.println(String.format(
+					"%s: utility %s, agreements %s, latency %s ms",
+					variants.get(v).name, getInterval(o.utilities, null),
+					getInterval(o.agreements, null),
+					getInterval(o.latencies, null)));
+			if (v == 0)
+				continue;
+			System.out.println(String.format(
+					"  vs %s: utility %s, agreements %s, latency %s ms",
+					variants.get(0).name,
+					getInterval(o.utilities, baseline.utilities),
+					getInterval(o.agreements, baseline.agreements),
+					getInterval(o.latencies, baseline.latencies)));
+		}
+	}
+
+	/**
+	 * @param values
+	 *            value per session
+	 * @param baseline
+	 *            value of the baseline per session, or null
+	 * @return the mean of the values, or of their difference from the
+	 *         baseline, with its 95% confidence interval
+	 */
+	private static String getInterval(double[] values, double[] baseline) {
+		StreamingStatistics s = new StreamingStatistics();
+		for (int i = 0; i < values.length; i++)
+			s.add(baseline == null ? values[i] : values[i] - baseline[i]);
+		double halfWidth = z95 * s.getStandardError();
+		return String.format(baseline == null ? "%.4f +- %.4f" : "%+.4f +- %.4f",
+				s.getMean(), halfWidth);
+	}
+
+	/**
+	 * @param spec
+	 *            name[@classpath][,parameter=value...]
+	 */
+	private void register(String spec) throws Exception {
+		String[] parts = spec.split(",");
+		String name = parts[0];
+		URL[] classpath = getCurrentClasspath();
+		int at = name.indexOf('@');
+		if (at >= 0) {
+			classpath = toUrls(name.substring(at + 1));
+			name = name.substring(0, at);
+		}
+
+		Map<String, Double> parameters = null;
+		if (parts.length > 1) {
+			parameters = new LinkedHashMap<String, Double>();
+			for (int i = 1; i < parts.length; i++) {
+				String[] p = parts[i].split("=");
+				parameters.put(p[0], Double.parseDouble(p[1]));
+			}
+		} else if (at < 0) {
+			parameters = new LinkedHashMap<String, Double>();
+		}
+		register(name, classpath, parameters);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 48;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+				.getRuntime().availableProcessors();
+
+		VariantRegistry registry = new VariantRegistry(
+				Scenario.loadAll(new File(Scenario.DEFAULT_TEMPLATE_DIRECTORY)),
+				new int[] { 18, 180 });
+		if (args.length > 2) {
+			for (int i = 2; i < args.length; i++)
+				registry.register(args[i]);
+		} else {
+			// The current defaults against the agent that was submitted for
+			// the first deliverable
+			registry.register("current", new LinkedHashMap<String, Double>());
+			File first = new File(deliverable1);
+			if (first.isFile())
+				registry.register("deliverable1", new URL[] { first.toURI()
+						.toURL() }, null);
+			else
+				System.out.println("WARNING :: MISSING DELIVERABLE :: "
+						+ first);
+		}
+
+		registry.compare(sessions, threads);
+	}
+}